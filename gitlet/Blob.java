@@ -1,20 +1,43 @@
 package gitlet;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * Pure file, with no name, no path.
+ * Files are streamed through a fixed-size buffer, so no file is ever
+ * held on the heap whole.
  * @author XiWang */
 
 public class Blob {
-    /**
-     * Change a file FILE to blob, and return its hash.
-     */
-    static String file2blob(File file) {
-        byte[] fileContent = Utils.readContents(file);
-        String sha = Utils.sha1(fileContent);
-        String fileDirectory = "./objects/" + sha;
-        Utils.writeContents(new File(fileDirectory), fileContent);
-        return sha;
+
+    /** Size of the buffer files are streamed through. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Return the hash of the contents of FILE. */
+    static ObjectId hash(File file) {
+        MessageDigest md = sha1();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                md.update(buffer, 0, n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return ObjectId.fromBytes(md.digest());
+    }
+
+    /** Return a fresh SHA-1 digest. */
+    static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
     }
 
 }
@@ -0,0 +1,124 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Splits a stream into content-defined chunks, using FastCDC: a gear
+ * hash is rolled over the bytes, and a chunk ends where the bits under
+ * a mask of its top bits are all zero.  Each byte is shifted up the hash
+ * as more follow, so the top bits depend on the last 64 bytes while the
+ * low ones depend on only the last few.  As the cut points depend only
+ * on nearby content, an edit moves the boundaries of the chunks around
+ * it and no others, so the rest of the file still splits into the same
+ * chunks.  Chunks are between MIN_SIZE and MAX_SIZE bytes, and near
+ * AVG_SIZE on average: a stricter mask is used before that size and a
+ * looser one after it.
+ *  @author XiWang */
+
+public class Chunker {
+
+    /** Shortest chunk, except at the end of the stream. */
+    static final int MIN_SIZE = 16 << 10;
+    /** Usual chunk size. */
+    static final int AVG_SIZE = 64 << 10;
+    /** Longest chunk. */
+    static final int MAX_SIZE = 256 << 10;
+
+    /** Mask used before AVG_SIZE: two more bits than AVG_SIZE needs. */
+    private static final long MASK_SMALL = mask(18);
+    /** Mask used after AVG_SIZE: two fewer bits. */
+    private static final long MASK_LARGE = mask(14);
+
+    /** A random value for each byte value, fixed so that every
+     *  repository cuts the same content the same way. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** A chunker of the contents of IN. */
+    Chunker(InputStream in) {
+        _in = in;
+        _buffer = new byte[2 * MAX_SIZE];
+    }
+
+    /** Return the next chunk, or null at the end of the stream. */
+    byte[] next() throws IOException {
+        fill();
+        if (_end == _start) {
+            return null;
+        }
+        int cut = cut(_buffer, _start, _end - _start);
+        byte[] chunk = Arrays.copyOfRange(_buffer, _start, _start + cut);
+        _start += cut;
+        return chunk;
+    }
+
+    /** Return the length of the chunk starting at DATA[OFF], given that
+     *  N bytes are available there. */
+    static int cut(byte[] data, int off, int n) {
+        if (n <= MIN_SIZE) {
+            return n;
+        }
+        int normal = Math.min(AVG_SIZE, n), limit = Math.min(MAX_SIZE, n);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[off + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i += 1) {
+            hash = (hash << 1) + GEAR[data[off + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /** Make at least MAX_SIZE bytes available from _start, unless the
+     *  stream ends first. */
+    private void fill() throws IOException {
+        if (_end - _start >= MAX_SIZE || _eof) {
+            return;
+        }
+        System.arraycopy(_buffer, _start, _buffer, 0, _end - _start);
+        _end -= _start;
+        _start = 0;
+        while (_end < _buffer.length) {
+            int n = _in.read(_buffer, _end, _buffer.length - _end);
+            if (n < 0) {
+                _eof = true;
+                return;
+            }
+            _end += n;
+        }
+    }
+
+    /** Return a mask of the top BITS bits of a hash, which depend on the
+     *  most recent bytes hashed. */
+    private static long mask(int bits) {
+        return -1L << (64 - bits);
+    }
+
+    /** The stream being chunked. */
+    private final InputStream _in;
+    /** Bytes read but not yet returned, in _buffer[_start .. _end-1]. */
+    private final byte[] _buffer;
+    /** Start of the unreturned bytes. */
+    private int _start;
+    /** End of the bytes read. */
+    private int _end;
+    /** True once the stream has ended. */
+    private boolean _eof;
+
+}
@@ -1,12 +1,24 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
+import java.time.DateTimeException;
 import java.time.Instant;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.Formatter;
 
@@ -14,6 +26,19 @@ import java.util.Formatter;
 /**
  * Each object is a commit.
  * Every commit contains a reference.
+ * A commit refers to its files through the ID of its top tree (see
+ * Tree), and reads the trees only when its files are first asked for.
+ * Commits made before trees were introduced, and the initial commit,
+ * hold their files directly instead.
+ *
+ * A commit with a top tree is stored in a binary form, and its ID is the
+ * hash of that form: a magic number and a version byte, the top tree's
+ * ID, the number of parents as a varint and their IDs, the time as a
+ * zigzag varint of milliseconds since the epoch, its UTC offset as a
+ * zigzag varint of seconds, and the message as a varint length and its
+ * UTF-8 bytes.  Other commits are stored with Java serialization, as
+ * they always have been, so that every repository still has the same
+ * initial commit.
  *  @author XiWang */
 
 public class Commit implements Serializable {
@@ -22,54 +47,188 @@ public class Commit implements Serializable {
         _commitTime = ZonedDateTime.ofInstant(
                 Instant.EPOCH, java.time.ZoneId.systemDefault());
         _message = "initial commit";
-        _parentHash = "";
-        _tree = new HashMap<String, String>();
+        _parentHash = null;
+        _tree = new HashMap<String, ObjectId>();
         calcLocalHash();
     }
-    /** Create new commit from INDEX.
+    /** Create new commit from INDEX, holding its files directly.
      *  Add MESSAGE and HEAD hash. */
-    public Commit(Index index, String message, String head) {
+    public Commit(Index index, String message, ObjectId head) {
+        this(index, message, head, null, null);
+    }
+
+    /** Create new commit from INDEX, whose files are stored as the tree
+     *  ROOT in STORE.  Add MESSAGE and HEAD hash. */
+    public Commit(Index index, String message, ObjectId head,
+                  ObjectStore store, ObjectId root) {
         _message = message;
         _parentHash = head;
-        _tree = new HashMap<String, String>(index.getTree());
-        _commitTime = ZonedDateTime.now();
+        _tree = new HashMap<String, ObjectId>(index.getTree());
+        _objects = store;
+        _root = root;
+        _commitTime = ZonedDateTime.now().truncatedTo(ChronoUnit.MILLIS);
         calcLocalHash();
     }
 
+    /** A commit read from its binary form CONTENTS. */
+    private Commit(byte[] contents) {
+        try {
+            ByteBuffer header = ByteBuffer.wrap(contents);
+            if (header.getInt() != MAGIC) {
+                throw new GitletException("Corrupt commit.");
+            }
+            if (header.get() != VERSION) {
+                throw new GitletException("Unknown commit version.");
+            }
+            int[] pos = {HEADER_BYTES};
+            _root = readId(contents, pos);
+            long parents = Utils.readVarint(contents, pos);
+            if (parents > 2) {
+                throw new GitletException("Corrupt commit.");
+            }
+            _parentHash = parents > 0 ? readId(contents, pos) : null;
+            _coparent = parents > 1 ? readId(contents, pos) : null;
+            long millis = Utils.readSignedVarint(contents, pos);
+            int offset = (int) Utils.readSignedVarint(contents, pos);
+            _commitTime = ZonedDateTime.ofInstant(
+                Instant.ofEpochMilli(millis),
+                ZoneOffset.ofTotalSeconds(offset));
+            int length = (int) Utils.readVarint(contents, pos);
+            if (length < 0 || pos[0] + length != contents.length) {
+                throw new GitletException("Corrupt commit.");
+            }
+            _message = new String(contents, pos[0], length,
+                                  StandardCharsets.UTF_8);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+                 | DateTimeException excp) {
+            throw new GitletException("Corrupt commit.");
+        }
+        _commitHash = ObjectId.fromBytes(Blob.sha1().digest(contents));
+    }
+
+    /** Return the commit stored as CONTENTS: in the binary form, or
+     *  serialized. */
+    static Commit fromBytes(byte[] contents) {
+        if (isSerialized(contents)) {
+            return Utils.deserialize(contents, Commit.class);
+        }
+        return new Commit(contents);
+    }
+
+    /** Return true if CONTENTS are a commit in the serialized form. */
+    static boolean isSerialized(byte[] contents) {
+        return contents.length >= 2 && (contents[0] & 0xff) == 0xac
+            && (contents[1] & 0xff) == 0xed;
+    }
+
+    /** Return the stored form of this commit. */
+    byte[] toBytes() {
+        return _root == null ? Utils.serialize(this) : encode();
+    }
+
+    /** Return this commit in the binary form. */
+    private byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC)
+                       .put(VERSION).array());
+        out.writeBytes(_root.toBytes());
+        Utils.writeVarint(out, _parentHash == null ? 0
+                          : _coparent == null ? 1 : 2);
+        if (_parentHash != null) {
+            out.writeBytes(_parentHash.toBytes());
+            if (_coparent != null) {
+                out.writeBytes(_coparent.toBytes());
+            }
+        }
+        Utils.writeSignedVarint(out, getTime());
+        Utils.writeSignedVarint(out,
+                                _commitTime.getOffset().getTotalSeconds());
+        byte[] message = _message.getBytes(StandardCharsets.UTF_8);
+        Utils.writeVarint(out, message.length);
+        out.writeBytes(message);
+        return out.toByteArray();
+    }
+
+    /** Return the ID in DATA at POS[0], and advance POS[0] past it. */
+    private static ObjectId readId(byte[] data, int[] pos) {
+        ObjectId result = ObjectId.fromBytes(data, pos[0]);
+        pos[0] += ObjectId.LENGTH;
+        return result;
+    }
+
     /** Update hash value. */
     private void calcLocalHash() {
-        _commitHash = Utils.sha1(Utils.serialize(_tree), _message,
-                                 Utils.serialize(_commitTime));
+        if (_root == null) {
+            _commitHash = ObjectId.fromHex(
+                Utils.sha1(Utils.serialize(hexTree(_tree)), _message,
+                           Utils.serialize(_commitTime)));
+        } else {
+            _commitHash = ObjectId.fromBytes(Blob.sha1().digest(encode()));
+        }
+    }
 
+    /** Read this commit's trees, when it needs them, from STORE. */
+    synchronized void attach(ObjectStore store) {
+        _objects = store;
     }
 
     /** Return hash. */
-    public String getHash() {
+    public ObjectId getHash() {
         return _commitHash;
     }
 
     /** Return tree. */
-    public HashMap<String, String> getTree() {
+    public synchronized HashMap<String, ObjectId> getTree() {
+        if (_tree == null) {
+            HashMap<String, ObjectId> tree = new HashMap<String, ObjectId>();
+            Tree.flatten(_objects, _root, "", tree);
+            _tree = tree;
+            CommitCache.SHARED.grow(this, treeBytes());
+        }
         return _tree;
     }
 
+    /** Return roughly how many bytes of memory the flattened tree takes,
+     *  or 0 if it has not been read in. */
+    synchronized long treeBytes() {
+        if (_tree == null) {
+            return 0;
+        }
+        long result = 0;
+        for (String name : _tree.keySet()) {
+            result += TREE_ENTRY_BYTES + name.length();
+        }
+        return result;
+    }
+
+    /** Return the ID of the top tree, or null if this commit holds its
+     *  files directly. */
+    public ObjectId getRoot() {
+        return _root;
+    }
+
+    /** Memory taken by an entry of a flattened tree, besides its name:
+     *  the map node, the name's String and the ID. */
+    private static final int TREE_ENTRY_BYTES = 128;
+
     /** Date format in log. */
     static final DateTimeFormatter DTF
         = DateTimeFormatter.ofPattern(
                 "EEE MMM d HH:mm:ss yyyy Z", Locale.ENGLISH);
 
+    /** Return commit time in milliseconds since the epoch. */
+    public long getTime() {
+        return _commitTime.toInstant().toEpochMilli();
+    }
+
     /** Return commit time string. */
     public String timeToString() {
         return _commitTime.format(DTF);
     }
 
-    /** Return hash code of FILE if file is in _tree, empty elsewise. */
-    public String tracked(String file) {
-        if (_tree.containsKey(file)) {
-            return _tree.get(file);
-        } else {
-            return "";
-        }
+    /** Return hash code of FILE if file is in _tree, null elsewise. */
+    public ObjectId tracked(String file) {
+        return getTree().get(file);
     }
 
     /** Return message. */
@@ -79,21 +238,24 @@ public class Commit implements Serializable {
 
     /** Return a key set. */
     public Set<String> getKeys() {
-        return _tree.keySet();
+        return getTree().keySet();
     }
 
-    /** Return parent. */
-    public String getParent() {
+    /** Return parent, or null for the initial commit. */
+    public ObjectId getParent() {
         return _parentHash;
     }
 
     /** Add co-parent S. */
-    public void setCoParent(String s) {
+    public void setCoParent(ObjectId s) {
         _coparent = s;
+        if (_root != null) {
+            calcLocalHash();
+        }
     }
 
     /** Return co-parent. */
-    public String getCoParent() {
+    public ObjectId getCoParent() {
         return _coparent;
     }
 
@@ -105,8 +267,8 @@ public class Commit implements Serializable {
         out.format("commit %s\n", _commitHash);
         if (_coparent != null) {
             out.format("Merge: %s %s\n",
-                       _parentHash.substring(0, 7),
-                       _coparent.substring(0, 7));
+                       _parentHash.abbreviate(7),
+                       _coparent.abbreviate(7));
         }
         out.format("Date: %s\n", timeToString());
         out.format("%s\n", _message);
@@ -119,26 +281,104 @@ public class Commit implements Serializable {
     }
     */
 
+    /** Return TREE with its blob IDs written as hex names. */
+    private static HashMap<String, String> hexTree(
+            Map<String, ObjectId> tree) {
+        HashMap<String, String> result = new HashMap<String, String>();
+        for (Map.Entry<String, ObjectId> e : tree.entrySet()) {
+            result.put(e.getKey(), e.getValue().toString());
+        }
+        return result;
+    }
+
+    /** Stored commits keep every ID as a hex String, as they always
+     *  have; these are the fields they are written with.  Commits with
+     *  a top tree leave _tree null. */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("_commitTime", ZonedDateTime.class),
+        new ObjectStreamField("_message", String.class),
+        new ObjectStreamField("_parentHash", String.class),
+        new ObjectStreamField("_tree", HashMap.class),
+        new ObjectStreamField("_commitHash", String.class),
+        new ObjectStreamField("_coparent", String.class),
+        new ObjectStreamField("_root", String.class),
+    };
+
+    /** Write this commit to OUT. */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("_commitTime", _commitTime);
+        fields.put("_message", _message);
+        fields.put("_parentHash",
+                   _parentHash == null ? "" : _parentHash.toString());
+        fields.put("_tree", _root == null ? hexTree(_tree) : null);
+        fields.put("_commitHash", _commitHash.toString());
+        fields.put("_coparent",
+                   _coparent == null ? null : _coparent.toString());
+        fields.put("_root", _root == null ? null : _root.toString());
+        out.writeFields();
+    }
+
+    /** Read a commit from IN. */
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        _commitTime = (ZonedDateTime) fields.get("_commitTime", null);
+        _message = (String) fields.get("_message", null);
+        _parentHash =
+            ObjectId.fromHexOrNull((String) fields.get("_parentHash", null));
+        _root = ObjectId.fromHexOrNull((String) fields.get("_root", null));
+        Map<?, ?> tree = (Map<?, ?>) fields.get("_tree", null);
+        if (tree != null) {
+            _tree = new HashMap<String, ObjectId>();
+            for (Map.Entry<?, ?> e : tree.entrySet()) {
+                _tree.put((String) e.getKey(),
+                          ObjectId.fromHex((String) e.getValue()));
+            }
+        }
+        _commitHash =
+            ObjectId.fromHex((String) fields.get("_commitHash", null));
+        _coparent =
+            ObjectId.fromHexOrNull((String) fields.get("_coparent", null));
+    }
+
     /** Commit time. */
     private ZonedDateTime _commitTime;
 
     /** Commit message. */
     private String _message;
 
-    /** Parent commit hash. */
-    private String _parentHash;
+    /** Parent commit hash, null for the initial commit. */
+    private ObjectId _parentHash;
+
+    /** File tree, null until read from the top tree. */
+    private HashMap<String, ObjectId> _tree;
+
+    /** ID of the top tree, or null if _tree is stored directly. */
+    private ObjectId _root;
 
-    /** File tree. */
-    private HashMap<String, String> _tree;
+    /** Where the trees are read from. */
+    private transient ObjectStore _objects;
 
     /** Hash for the commit itself. */
-    private String _commitHash;
+    private ObjectId _commitHash;
+
+    /** Magic number starting the binary form, "GLCM". */
+    private static final int MAGIC = 0x474c434d;
+    /** Version of the binary form. */
+    private static final byte VERSION = 1;
+    /** Length of the magic number and version. */
+    private static final int HEADER_BYTES = 5;
+
+    /** Kept so that commits written before this class changed can
+     *  still be read. */
+    private static final long serialVersionUID = 3013609985176404584L;
 
     /** Hash for initial commit. */
     public static final String
         INITIALCOMMI_STRING = "6a3cc0999d188df5bb3e204c6f17159c39f873f6";
 
     /** Merged branch. */
-    private String _coparent;
+    private ObjectId _coparent;
 
 }
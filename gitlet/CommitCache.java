@@ -0,0 +1,137 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recently read commits, so that repeated lookups do not go back to
+ * disk.  Commits never change once stored, so one cache serves every
+ * repository in the process, and lives as long as it does; the store a
+ * cached commit reads its trees from is set again by each repository that
+ * looks it up.  The cache is bounded both in entries and in the size of
+ * the commits it holds, stored size plus their trees once read in, and
+ * evicts the least recently used commit first.  The bounds can be set
+ * with the gitlet.commitCache.entries and gitlet.commitCache.bytes system
+ * properties.
+ *  @author XiWang */
+
+public class CommitCache {
+
+    /** The cache shared by all repositories. */
+    static final CommitCache SHARED = new CommitCache(
+        Long.getLong("gitlet.commitCache.entries", 4096),
+        Long.getLong("gitlet.commitCache.bytes", 32L << 20));
+
+    /** A cache holding at most MAXENTRIES commits and MAXBYTES bytes. */
+    CommitCache(long maxEntries, long maxBytes) {
+        _maxEntries = maxEntries;
+        _maxBytes = maxBytes;
+        _entries = new LinkedHashMap<ObjectId, Entry>(16, 0.75f, true);
+    }
+
+    /** Return commit HASH, or null if it is not cached. */
+    synchronized Commit get(ObjectId hash) {
+        Entry e = _entries.get(hash);
+        if (e == null) {
+            _misses += 1;
+            return null;
+        }
+        _hits += 1;
+        return e.commit;
+    }
+
+    /** Cache COMMIT, whose stored form takes SIZE bytes. */
+    void put(Commit commit, long size) {
+        add(commit, size + commit.treeBytes());
+    }
+
+    /** Cache COMMIT, charging it SIZE bytes. */
+    private synchronized void add(Commit commit, long size) {
+        if (size > _maxBytes || _maxEntries <= 0) {
+            return;
+        }
+        Entry old = _entries.put(commit.getHash(), new Entry(commit, size));
+        if (old != null) {
+            _bytes -= old.size;
+        }
+        _bytes += size;
+        trim();
+    }
+
+    /** Charge COMMIT, if it is the one cached, SIZE bytes more, as when
+     *  its tree is read in. */
+    synchronized void grow(Commit commit, long size) {
+        Entry e = _entries.get(commit.getHash());
+        if (e == null || e.commit != commit) {
+            return;
+        }
+        e.size += size;
+        _bytes += size;
+        if (e.size > _maxBytes) {
+            remove(commit.getHash());
+            _evictions += 1;
+        }
+        trim();
+    }
+
+    /** Evict commits, least recently used first, until within bounds. */
+    private void trim() {
+        while (_entries.size() > _maxEntries || _bytes > _maxBytes) {
+            Map.Entry<ObjectId, Entry> eldest =
+                _entries.entrySet().iterator().next();
+            _bytes -= eldest.getValue().size;
+            _entries.remove(eldest.getKey());
+            _evictions += 1;
+        }
+    }
+
+    /** Forget commit HASH. */
+    synchronized void remove(ObjectId hash) {
+        Entry old = _entries.remove(hash);
+        if (old != null) {
+            _bytes -= old.size;
+        }
+    }
+
+    /** Return the number of lookups that found their commit. */
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /** Return the number of lookups that did not. */
+    synchronized long misses() {
+        return _misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("commit cache: %d entries, %d bytes, "
+                             + "%d hits, %d misses, %d evictions",
+                             _entries.size(), _bytes, _hits, _misses,
+                             _evictions);
+    }
+
+    /** A cached commit and its size. */
+    private static class Entry {
+        /** An entry for COMMIT of SIZE bytes. */
+        Entry(Commit commit, long size) {
+            this.commit = commit;
+            this.size = size;
+        }
+
+        /** The commit. */
+        final Commit commit;
+        /** Its size. */
+        long size;
+    }
+
+    /** Bounds on entries and bytes. */
+    private final long _maxEntries, _maxBytes;
+    /** Cached commits by hash, least recently used first. */
+    private final LinkedHashMap<ObjectId, Entry> _entries;
+    /** Total size of the cached commits. */
+    private long _bytes;
+    /** Counters. */
+    private long _hits, _misses, _evictions;
+
+}
@@ -0,0 +1,409 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The shape of the history: for every commit, its parents, generation
+ * number and commit time, so that history can be walked without reading
+ * commit objects.  Commits are numbered by position.  The bulk of them
+ * live in a memory-mapped file sorted by ID; commits added since it was
+ * written are appended to a small tail file and folded in once it grows.
+ *  @author XiWang */
+
+public class CommitGraph {
+
+    /** Position of a missing commit or parent. */
+    static final int NONE = -1;
+
+    /** Marks a commit-graph file. */
+    private static final int MAGIC = 0x43475048;
+    /** Bytes in a binary commit ID. */
+    private static final int ID_BYTES = 20;
+    /** Bytes of parent, coparent, generation and time per commit. */
+    private static final int DATA_BYTES = 20;
+    /** Bytes before the fanout table. */
+    private static final int HEADER_BYTES = 8;
+    /** Bytes in the fanout table. */
+    private static final int FANOUT_BYTES = 256 * 4;
+    /** Bytes per commit in the tail file. */
+    private static final int TAIL_BYTES = 3 * ID_BYTES + 8;
+    /** Tail length at which the tail is folded into the main file. */
+    private static final int MAX_TAIL = 256;
+
+    /** The commit graph kept in OBJECTDIR, which may not exist yet. */
+    CommitGraph(File objectDir) {
+        _file = Utils.join(objectDir, "commit-graph");
+        _tailFile = Utils.join(objectDir, "commit-graph.tail");
+        map();
+        readTail();
+    }
+
+    /** Return the number of commits in the graph. */
+    int size() {
+        return _count + _tail.size();
+    }
+
+    /** Return the position of commit HASH, or NONE if it is unknown. */
+    int lookup(ObjectId hash) {
+        if (hash == null) {
+            return NONE;
+        }
+        Integer pos = _tailPositions.get(hash);
+        if (pos != null) {
+            return pos;
+        }
+        byte[] id = hash.toBytes();
+        int first = id[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1), hi = fanout(first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, id);
+            if (cmp == 0) {
+                return mid;
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return NONE;
+    }
+
+    /** Return true if commit HASH is in the graph. */
+    boolean contains(ObjectId hash) {
+        return lookup(hash) != NONE;
+    }
+
+    /** Return the ID of the commit at POS. */
+    ObjectId id(int pos) {
+        if (pos >= _count) {
+            return _tail.get(pos - _count).id;
+        }
+        byte[] id = new byte[ID_BYTES];
+        _map.get(idOffset(pos), id);
+        return ObjectId.fromBytes(id);
+    }
+
+    /** Return the position of the first parent of POS, or NONE. */
+    int parent(int pos) {
+        if (pos >= _count) {
+            return _tail.get(pos - _count).parent;
+        }
+        return _map.getInt(dataOffset(pos));
+    }
+
+    /** Return the position of the second (merged) parent of POS,
+     *  or NONE. */
+    int coparent(int pos) {
+        if (pos >= _count) {
+            return _tail.get(pos - _count).coparent;
+        }
+        return _map.getInt(dataOffset(pos) + 4);
+    }
+
+    /** Return the generation number of POS: 1 for a root commit, and
+     *  otherwise one more than that of its highest parent. */
+    int generation(int pos) {
+        if (pos >= _count) {
+            return _tail.get(pos - _count).generation;
+        }
+        return _map.getInt(dataOffset(pos) + 8);
+    }
+
+    /** Return the commit time of POS in milliseconds since the epoch. */
+    long time(int pos) {
+        if (pos >= _count) {
+            return _tail.get(pos - _count).time;
+        }
+        return _map.getLong(dataOffset(pos) + 12);
+    }
+
+    /** Add COMMIT, whose parents must already be present.  Does nothing
+     *  if it is already there. */
+    void add(Commit commit) {
+        if (contains(commit.getHash())) {
+            return;
+        }
+        Entry e = new Entry(commit.getHash(), commit.getParent(),
+                            commit.getCoParent(), commit.getTime());
+        appendTail(e);
+        if (_tail.size() >= MAX_TAIL) {
+            write(entries());
+        } else {
+            byte[] bytes = new byte[TAIL_BYTES];
+            putId(bytes, 0, e.id);
+            putId(bytes, ID_BYTES, e.parentId);
+            putId(bytes, 2 * ID_BYTES, e.coparentId);
+            for (int i = 0; i < 8; i += 1) {
+                bytes[3 * ID_BYTES + i] = (byte) (e.time >>> (56 - 8 * i));
+            }
+            try (FileOutputStream out = new FileOutputStream(_tailFile, true)) {
+                out.write(bytes);
+            } catch (IOException excp) {
+                throw new GitletException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Replace the graph by one holding COMMITS, which must include the
+     *  parents of each. */
+    void rebuild(List<Commit> commits) {
+        List<Entry> all = new ArrayList<Entry>();
+        for (Commit c : commits) {
+            all.add(new Entry(c.getHash(), c.getParent(), c.getCoParent(),
+                              c.getTime()));
+        }
+        write(all);
+    }
+
+    /** One commit, as stored in the tail. */
+    private static class Entry {
+        /** Commit ID with parent IDs PARENTID and COPARENTID (null if
+         *  absent) and commit time TIME. */
+        Entry(ObjectId id, ObjectId parentId, ObjectId coparentId,
+              long time) {
+            this.id = id;
+            this.parentId = parentId;
+            this.coparentId = coparentId;
+            this.time = time;
+        }
+
+        /** Commit ID. */
+        final ObjectId id;
+        /** Parent IDs, null if absent. */
+        final ObjectId parentId, coparentId;
+        /** Commit time. */
+        final long time;
+        /** Parent positions, filled in once they are known. */
+        int parent, coparent;
+        /** Generation number, filled in once the parents are known. */
+        int generation;
+    }
+
+    /** Return every commit in the graph. */
+    private List<Entry> entries() {
+        List<Entry> all = new ArrayList<Entry>();
+        for (int pos = 0; pos < _count; pos += 1) {
+            int p = parent(pos), cp = coparent(pos);
+            all.add(new Entry(id(pos), p == NONE ? null : id(p),
+                              cp == NONE ? null : id(cp), time(pos)));
+        }
+        all.addAll(_tail);
+        return all;
+    }
+
+    /** Write ALL as the main file, sorted by ID, and empty the tail. */
+    private void write(List<Entry> all) {
+        all.sort(Comparator.comparing((Entry e) -> e.id));
+        HashMap<ObjectId, Integer> positions =
+            new HashMap<ObjectId, Integer>();
+        for (int i = 0; i < all.size(); i += 1) {
+            positions.put(all.get(i).id, i);
+        }
+        for (Entry e : all) {
+            e.parent = e.parentId == null ? NONE
+                : positions.getOrDefault(e.parentId, NONE);
+            e.coparent = e.coparentId == null ? NONE
+                : positions.getOrDefault(e.coparentId, NONE);
+            e.generation = 0;
+        }
+        for (Entry e : all) {
+            computeGeneration(e, all);
+        }
+        int[] fanout = new int[256];
+        for (Entry e : all) {
+            fanout[e.id.firstByte()] += 1;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        File tmp = new File(_file.getPath() + ".tmp");
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(all.size());
+            int total = 0;
+            for (int n : fanout) {
+                total += n;
+                out.writeInt(total);
+            }
+            for (Entry e : all) {
+                out.write(e.id.toBytes());
+            }
+            for (Entry e : all) {
+                out.writeInt(e.parent);
+                out.writeInt(e.coparent);
+                out.writeInt(e.generation);
+                out.writeLong(e.time);
+            }
+            try (FileOutputStream str = new FileOutputStream(tmp)) {
+                bytes.writeTo(str);
+            }
+            Files.move(tmp.toPath(), _file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        _tailFile.delete();
+        map();
+        readTail();
+    }
+
+    /** Fill in the generation of E, and of any ancestors of E in ALL that
+     *  lack one, without recursing down long histories. */
+    private static void computeGeneration(Entry e, List<Entry> all) {
+        ArrayList<Entry> stack = new ArrayList<Entry>();
+        stack.add(e);
+        while (!stack.isEmpty()) {
+            Entry top = stack.get(stack.size() - 1);
+            if (top.generation != 0) {
+                stack.remove(stack.size() - 1);
+                continue;
+            }
+            int gen = 1;
+            boolean ready = true;
+            for (int p : new int[] {top.parent, top.coparent}) {
+                if (p == NONE) {
+                    continue;
+                }
+                Entry parent = all.get(p);
+                if (parent.generation == 0) {
+                    stack.add(parent);
+                    ready = false;
+                } else {
+                    gen = Math.max(gen, parent.generation + 1);
+                }
+            }
+            if (ready) {
+                top.generation = gen;
+                stack.remove(stack.size() - 1);
+            }
+        }
+    }
+
+    /** Map the main file, if there is one. */
+    private void map() {
+        _count = 0;
+        _map = null;
+        if (!_file.exists()) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(_file, "r");
+             FileChannel channel = raf.getChannel()) {
+            _map = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                               channel.size());
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        if (_map.getInt(0) != MAGIC) {
+            throw new GitletException("Corrupt commit-graph file.");
+        }
+        _count = _map.getInt(4);
+    }
+
+    /** Read the tail file, if there is one. */
+    private void readTail() {
+        _tail = new ArrayList<Entry>();
+        _tailPositions = new HashMap<ObjectId, Integer>();
+        if (!_tailFile.exists()) {
+            return;
+        }
+        byte[] bytes = Utils.readContents(_tailFile);
+        for (int off = 0; off + TAIL_BYTES <= bytes.length;
+             off += TAIL_BYTES) {
+            long time = 0;
+            for (int i = 0; i < 8; i += 1) {
+                time = (time << 8) | (bytes[off + 3 * ID_BYTES + i] & 0xff);
+            }
+            appendTail(new Entry(getId(bytes, off),
+                                 getId(bytes, off + ID_BYTES),
+                                 getId(bytes, off + 2 * ID_BYTES), time));
+        }
+    }
+
+    /** Add E to the in-memory tail, resolving its parents. */
+    private void appendTail(Entry e) {
+        e.parent = lookup(e.parentId);
+        e.coparent = lookup(e.coparentId);
+        e.generation = 1;
+        for (int p : new int[] {e.parent, e.coparent}) {
+            if (p != NONE) {
+                e.generation = Math.max(e.generation, generation(p) + 1);
+            }
+        }
+        _tailPositions.put(e.id, size());
+        _tail.add(e);
+    }
+
+    /** Store ID, or zeros if it is null, into BYTES at OFF. */
+    private static void putId(byte[] bytes, int off, ObjectId id) {
+        if (id != null) {
+            id.copyTo(bytes, off);
+        }
+    }
+
+    /** Return the ID in BYTES at OFF, or null if it is all zeros. */
+    private static ObjectId getId(byte[] bytes, int off) {
+        for (int i = off; i < off + ID_BYTES; i += 1) {
+            if (bytes[i] != 0) {
+                return ObjectId.fromBytes(bytes, off);
+            }
+        }
+        return null;
+    }
+
+    /** Return the number of main-file IDs whose first byte is at most
+     *  FIRST. */
+    private int fanout(int first) {
+        return _map == null ? 0 : _map.getInt(HEADER_BYTES + 4 * first);
+    }
+
+    /** Compare the main-file ID at POS with ID. */
+    private int compareId(int pos, byte[] id) {
+        int off = idOffset(pos);
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int cmp = (_map.get(off + i) & 0xff) - (id[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Return the file offset of the ID at POS. */
+    private int idOffset(int pos) {
+        return HEADER_BYTES + FANOUT_BYTES + pos * ID_BYTES;
+    }
+
+    /** Return the file offset of the data for POS. */
+    private int dataOffset(int pos) {
+        return HEADER_BYTES + FANOUT_BYTES + _count * ID_BYTES
+            + pos * DATA_BYTES;
+    }
+
+    /** The main file. */
+    private File _file;
+    /** The tail file. */
+    private File _tailFile;
+    /** The main file, mapped. */
+    private MappedByteBuffer _map;
+    /** Number of commits in the main file. */
+    private int _count;
+    /** Commits in the tail, in the order added. */
+    private List<Entry> _tail;
+    /** Positions of the commits in the tail. */
+    private HashMap<ObjectId, Integer> _tailPositions;
+
+}
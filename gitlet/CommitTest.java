@@ -0,0 +1,120 @@
+package gitlet;
+
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of the stored forms of commits.
+ *  @author XiWang */
+public class CommitTest {
+
+    /** A top tree. */
+    private static final ObjectId ROOT =
+        ObjectId.fromHex("0123456789abcdef0123456789abcdef01234567");
+    /** A parent. */
+    private static final ObjectId PARENT =
+        ObjectId.fromHex("89abcdef0123456789abcdef0123456789abcdef");
+    /** A second parent. */
+    private static final ObjectId COPARENT =
+        ObjectId.fromHex("fedcba9876543210fedcba9876543210fedcba98");
+
+    /** A commit with a tree is stored in the binary form, is named by
+     *  its hash, and reads back field for field. */
+    @Test
+    public void binaryRoundTrip() {
+        Commit commit = treeCommit("A message, with \u00fcnicode.", PARENT);
+        byte[] bytes = commit.toBytes();
+        assertFalse(isSerialized(bytes));
+        assertEquals(ObjectId.fromBytes(Blob.sha1().digest(bytes)),
+                     commit.getHash());
+        Commit read = Commit.fromBytes(bytes);
+        assertEquals(commit.getHash(), read.getHash());
+        assertEquals(ROOT, read.getRoot());
+        assertEquals(PARENT, read.getParent());
+        assertNull(read.getCoParent());
+        assertEquals(commit.getTime(), read.getTime());
+        assertEquals(commit.timeToString(), read.timeToString());
+        assertEquals(commit.getMessage(), read.getMessage());
+        assertArrayEquals(bytes, read.toBytes());
+    }
+
+    /** Both parents of a merge are kept, and the second parent is part
+     *  of the hash. */
+    @Test
+    public void mergeRoundTrip() {
+        Commit commit = treeCommit("Merged.", PARENT);
+        ObjectId single = commit.getHash();
+        commit.setCoParent(COPARENT);
+        assertNotEquals(single, commit.getHash());
+        Commit read = Commit.fromBytes(commit.toBytes());
+        assertEquals(commit.getHash(), read.getHash());
+        assertEquals(PARENT, read.getParent());
+        assertEquals(COPARENT, read.getCoParent());
+    }
+
+    /** A commit without a parent round trips. */
+    @Test
+    public void parentlessRoundTrip() {
+        Commit commit = treeCommit("", null);
+        Commit read = Commit.fromBytes(commit.toBytes());
+        assertEquals(commit.getHash(), read.getHash());
+        assertNull(read.getParent());
+        assertEquals("", read.getMessage());
+    }
+
+    /** Commits that hold their files directly, such as the initial
+     *  commit, are still serialized as before, and keep their IDs. */
+    @Test
+    public void legacyRoundTrip() {
+        Commit initial = new Commit();
+        byte[] bytes = initial.toBytes();
+        assertTrue(isSerialized(bytes));
+        Commit read = Commit.fromBytes(bytes);
+        assertEquals(initial.getHash(), read.getHash());
+        assertEquals("initial commit", read.getMessage());
+        assertNull(read.getRoot());
+        assertNull(read.getParent());
+
+        Commit flat = new Commit(new Index(initial), "Flat.",
+                                 initial.getHash());
+        read = Commit.fromBytes(flat.toBytes());
+        assertTrue(isSerialized(flat.toBytes()));
+        assertEquals(flat.getHash(), read.getHash());
+        assertEquals(initial.getHash(), read.getParent());
+        assertEquals(flat.getMessage(), read.getMessage());
+    }
+
+    /** Truncated or garbled binary commits are refused. */
+    @Test
+    public void rejectsCorruptBinary() {
+        byte[] bytes = treeCommit("Some message.", PARENT).toBytes();
+        assertCorrupt(Arrays.copyOf(bytes, bytes.length - 1));
+        assertCorrupt(Arrays.copyOf(bytes, 10));
+        assertCorrupt(Arrays.copyOf(bytes, bytes.length + 1));
+        byte[] badMagic = bytes.clone();
+        badMagic[0] ^= 1;
+        assertCorrupt(badMagic);
+    }
+
+    /** Return a commit of the tree ROOT with MESSAGE and PARENT. */
+    private static Commit treeCommit(String message, ObjectId parent) {
+        return new Commit(new Index(new Commit()), message, parent, null,
+                          ROOT);
+    }
+
+    /** Return true if BYTES are a Java-serialized object. */
+    private static boolean isSerialized(byte[] bytes) {
+        return (bytes[0] & 0xff) == 0xac && (bytes[1] & 0xff) == 0xed;
+    }
+
+    /** Assert that BYTES are not read as a commit. */
+    private static void assertCorrupt(byte[] bytes) {
+        try {
+            Commit.fromBytes(bytes);
+            fail("read a corrupt commit");
+        } catch (GitletException excp) {
+            /* Refused, as it should be. */
+        }
+    }
+
+}
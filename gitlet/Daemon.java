@@ -0,0 +1,147 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A long-lived gitlet process that keeps the repository loaded between
+ * commands.  It listens on a Unix-domain socket inside .gitlet, and thin
+ * clients hand it their arguments instead of loading the repository
+ * themselves.  Commands are served one at a time.
+ *  @author XiWang */
+
+public class Daemon {
+
+    /** Name of the socket file inside the .gitlet directory. */
+    static final String SOCKET_NAME = "daemon.sock";
+    /** Most arguments a client may send with a command. */
+    private static final int MAX_ARGS = 1024;
+
+    /** Serve commands for the repository in OBJECTDIR until stopped. */
+    static void serve(File objectDir) {
+        File socket = Utils.join(objectDir, SOCKET_NAME);
+        if (socket.exists()) {
+            if (forward(objectDir, "daemon", "--ping")) {
+                throw new GitletException("A daemon is already running.");
+            }
+            socket.delete();
+        }
+        UnixDomainSocketAddress address =
+            UnixDomainSocketAddress.of(socket.toPath());
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(address);
+            socket.deleteOnExit();
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = answer(client);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            throw new GitletException(e.getMessage());
+        } finally {
+            socket.delete();
+        }
+    }
+
+    /** Run the single command sent over CLIENT and send back what it
+     *  wrote to standard output and then what it wrote to standard
+     *  error.  Return false if the command asked the daemon to stop. */
+    private static boolean answer(SocketChannel client) throws IOException {
+        DataInputStream in =
+            new DataInputStream(Channels.newInputStream(client));
+        DataOutputStream out =
+            new DataOutputStream(Channels.newOutputStream(client));
+        int count = in.readInt();
+        if (count < 1 || count > MAX_ARGS) {
+            throw new IOException("Malformed command from client.");
+        }
+        String[] args = new String[count];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        boolean keepRunning = true;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        ByteArrayOutputStream errBuffer = new ByteArrayOutputStream();
+        if (args[0].equals("daemon")) {
+            keepRunning = !(args.length == 2 && args[1].equals("--stop"));
+        } else {
+            PrintStream stdout = System.out;
+            PrintStream stderr = System.err;
+            PrintStream captured =
+                new PrintStream(buffer, true, StandardCharsets.UTF_8);
+            System.setOut(captured);
+            System.setErr(
+                new PrintStream(errBuffer, true, StandardCharsets.UTF_8));
+            try {
+                Main.run(args);
+                Utils.stats("%s", CommitCache.SHARED);
+            } catch (RuntimeException e) {
+                captured.println(e.getMessage());
+                Main.reset();
+            } finally {
+                System.setOut(stdout);
+                System.setErr(stderr);
+            }
+        }
+        out.writeInt(buffer.size());
+        buffer.writeTo(out);
+        out.writeInt(errBuffer.size());
+        errBuffer.writeTo(out);
+        out.flush();
+        return keepRunning;
+    }
+
+    /** Send ARGS to the daemon for OBJECTDIR and print what it answers,
+     *  its command's output and errors each to our own.
+     *  Return false, doing nothing, if no daemon is listening. */
+    static boolean forward(File objectDir, String... args) {
+        File socket = Utils.join(objectDir, SOCKET_NAME);
+        if (!socket.exists()) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(
+                UnixDomainSocketAddress.of(socket.toPath()));
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+        try (channel) {
+            DataOutputStream out =
+                new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in =
+                new DataInputStream(Channels.newInputStream(channel));
+            byte[] output = new byte[in.readInt()];
+            in.readFully(output);
+            System.out.write(output);
+            System.out.flush();
+            byte[] errors = new byte[in.readInt()];
+            in.readFully(errors);
+            System.err.write(errors);
+            System.err.flush();
+            return true;
+        } catch (IOException e) {
+            throw new GitletException("Lost connection to the daemon.");
+        }
+    }
+
+}
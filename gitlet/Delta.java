@@ -0,0 +1,160 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Copy/insert deltas, which describe one version of a file in terms of
+ * another.  A delta starts with the lengths of the base and the result,
+ * each as a varint, followed by instructions.  An instruction byte of 1
+ * to 127 inserts that many literal bytes, which follow it; the byte 128
+ * copies a run of the base, whose offset and length follow as varints.
+ *  @author XiWang */
+
+public class Delta {
+
+    /** Length of the blocks of the base that are indexed. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 0x01000193;
+    /** PRIME to the power BLOCK - 1. */
+    private static final int TOP_POWER;
+    /** Longest literal run in one instruction. */
+    private static final int MAX_INSERT = 127;
+    /** The copy instruction. */
+    private static final int COPY = 128;
+
+    static {
+        int p = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            p *= PRIME;
+        }
+        TOP_POWER = p;
+    }
+
+    /** Return a delta that makes TARGET from BASE. */
+    static byte[] compute(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Utils.writeVarint(out, base.length);
+        Utils.writeVarint(out, target.length);
+        int[] table = index(base);
+        int mask = table.length - 1;
+        int pending = 0;
+        int i = 0;
+        int hash = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            int cand = table[mix(hash) & mask] - 1;
+            if (cand >= 0 && same(base, cand, target, i, BLOCK)) {
+                int start = i, from = cand;
+                while (start > pending && from > 0
+                       && base[from - 1] == target[start - 1]) {
+                    start -= 1;
+                    from -= 1;
+                }
+                int end = i + BLOCK, to = cand + BLOCK;
+                while (end < target.length && to < base.length
+                       && base[to] == target[end]) {
+                    end += 1;
+                    to += 1;
+                }
+                insert(out, target, pending, start);
+                out.write(COPY);
+                Utils.writeVarint(out, from);
+                Utils.writeVarint(out, end - start);
+                pending = i = end;
+                if (i + BLOCK <= target.length) {
+                    hash = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    hash = (hash - target[i] * TOP_POWER) * PRIME
+                        + target[i + BLOCK];
+                }
+                i += 1;
+            }
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Return the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (Utils.readVarint(delta, pos) != base.length) {
+            throw new GitletException("Delta does not fit its base.");
+        }
+        byte[] result = new byte[(int) Utils.readVarint(delta, pos)];
+        int n = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]] & 0xff;
+            pos[0] += 1;
+            if (op == COPY) {
+                int from = (int) Utils.readVarint(delta, pos);
+                int len = (int) Utils.readVarint(delta, pos);
+                System.arraycopy(base, from, result, n, len);
+                n += len;
+            } else {
+                System.arraycopy(delta, pos[0], result, n, op);
+                pos[0] += op;
+                n += op;
+            }
+        }
+        if (n != result.length) {
+            throw new GitletException("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Return a hash table from the hashes of the aligned blocks of BASE
+     *  to one more than the offset of the first block with each. */
+    private static int[] index(byte[] base) {
+        int blocks = base.length / BLOCK;
+        int size = Integer.highestOneBit(Math.max(1, blocks) * 2);
+        if (size < blocks * 2) {
+            size *= 2;
+        }
+        int[] table = new int[size];
+        for (int off = 0; off + BLOCK <= base.length; off += BLOCK) {
+            int slot = mix(hash(base, off)) & (size - 1);
+            if (table[slot] == 0) {
+                table[slot] = off + 1;
+            }
+        }
+        return table;
+    }
+
+    /** Write instructions inserting DATA[FROM .. TO-1] to OUT. */
+    private static void insert(ByteArrayOutputStream out, byte[] data,
+                               int from, int to) {
+        while (from < to) {
+            int n = Math.min(MAX_INSERT, to - from);
+            out.write(n);
+            out.write(data, from, n);
+            from += n;
+        }
+    }
+
+    /** Return the rolling hash of the BLOCK bytes of DATA at OFF. */
+    private static int hash(byte[] data, int off) {
+        int h = 0;
+        for (int i = off; i < off + BLOCK; i += 1) {
+            h = h * PRIME + data[i];
+        }
+        return h;
+    }
+
+    /** Return H with its high bits folded into its low ones. */
+    private static int mix(int h) {
+        return h ^ (h >>> 15) ^ (h >>> 7);
+    }
+
+    /** Return true if the LEN bytes of A at I equal those of B at J. */
+    private static boolean same(byte[] a, int i, byte[] b, int j, int len) {
+        for (int k = 0; k < len; k += 1) {
+            if (a[i + k] != b[j + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,75 @@
+package gitlet;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of copy/insert deltas.
+ *  @author XiWang */
+public class DeltaTest {
+
+    /** A delta between versions with edits at the start, middle and end
+     *  rebuilds the target, and is much smaller than it. */
+    @Test
+    public void roundTripsEditedVersion() {
+        byte[] base = randomBytes(1, 64 << 10);
+        byte[] target = new byte[base.length + 100];
+        System.arraycopy(base, 0, target, 0, 1000);
+        Arrays.fill(target, 1000, 1100, (byte) 'x');
+        System.arraycopy(base, 1000, target, 1100, base.length - 1000);
+        target[5] ^= 1;
+        target[target.length - 1] ^= 1;
+        byte[] delta = Delta.compute(base, target);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        assertTrue(delta.length < target.length / 10);
+    }
+
+    /** Unrelated contents, and empty bases and targets, still round
+     *  trip, through literal inserts alone. */
+    @Test
+    public void roundTripsWithoutCommonRuns() {
+        byte[] a = randomBytes(2, 5000);
+        byte[] b = randomBytes(3, 7000);
+        byte[] empty = new byte[0];
+        assertArrayEquals(b, Delta.apply(a, Delta.compute(a, b)));
+        assertArrayEquals(empty, Delta.apply(a, Delta.compute(a, empty)));
+        assertArrayEquals(b, Delta.apply(empty, Delta.compute(empty, b)));
+        assertArrayEquals(a, Delta.apply(a, Delta.compute(a, a)));
+    }
+
+    /** Bases shorter than a block, and a target made of a run repeated
+     *  from the base, round trip. */
+    @Test
+    public void roundTripsShortAndRepeated() {
+        byte[] shortBase = "wug".getBytes();
+        byte[] target = "a wug, a wug".getBytes();
+        assertArrayEquals(target,
+                          Delta.apply(shortBase,
+                                      Delta.compute(shortBase, target)));
+        byte[] base = randomBytes(4, 256);
+        byte[] repeated = new byte[base.length * 3];
+        for (int i = 0; i < 3; i += 1) {
+            System.arraycopy(base, 0, repeated, i * base.length, base.length);
+        }
+        byte[] delta = Delta.compute(base, repeated);
+        assertArrayEquals(repeated, Delta.apply(base, delta));
+        assertTrue(delta.length < base.length);
+    }
+
+    /** A delta is refused against a base other than its own length. */
+    @Test(expected = GitletException.class)
+    public void rejectsWrongBase() {
+        byte[] base = randomBytes(5, 1000);
+        byte[] delta = Delta.compute(base, randomBytes(6, 1000));
+        Delta.apply(Arrays.copyOf(base, 999), delta);
+    }
+
+    /** Return N bytes from a generator seeded with SEED. */
+    private static byte[] randomBytes(long seed, int n) {
+        byte[] result = new byte[n];
+        new Random(seed).nextBytes(result);
+        return result;
+    }
+
+}
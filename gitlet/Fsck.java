@@ -0,0 +1,240 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the objects of a repository.  First every stored object is read
+ * and hashed again, in parallel, each as a stream, and the references in
+ * each commit, tree and chunked blob are collected.  Then the objects
+ * reachable from the branches and the staging area are found from those
+ * references.  The check reports objects whose contents do not match
+ * their IDs, objects referred to but not stored, and stored objects that
+ * nothing refers to.
+ *  @author XiWang */
+
+public class Fsck {
+
+    /** A reference from one object to another. */
+    private static class Link {
+        /** A reference to object ID, of type TYPE, from FROM. */
+        Link(ObjectId id, String type, String from) {
+            this.id = id;
+            this.type = type;
+            this.from = from;
+        }
+
+        /** The object referred to. */
+        final ObjectId id;
+        /** What that object should be. */
+        final String type;
+        /** What refers to it. */
+        final String from;
+    }
+
+    /** A checker of the objects in STORE. */
+    Fsck(ObjectStore store) {
+        _store = store;
+    }
+
+    /** Check every object, and connectivity from BRANCHES, a map from
+     *  branch names to commits, and the STAGED blobs.  Print a line for
+     *  each problem found, then a summary, and return the number of
+     *  problems. */
+    int check(Map<String, ObjectId> branches, Collection<ObjectId> staged) {
+        long start = System.nanoTime();
+        Set<ObjectId> ids = _store.ids();
+        WorkTreeScanner.pool().submit(() -> {
+            ids.parallelStream().forEach(this::verify);
+        }).join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        ArrayDeque<Link> work = new ArrayDeque<Link>();
+        for (Map.Entry<String, ObjectId> e : branches.entrySet()) {
+            work.push(new Link(e.getValue(), "commit",
+                               "branch " + e.getKey()));
+        }
+        for (ObjectId blob : staged) {
+            work.push(new Link(blob, "blob", "staging area"));
+        }
+        HashSet<ObjectId> reachable = new HashSet<ObjectId>();
+        while (!work.isEmpty()) {
+            Link link = work.pop();
+            if (!reachable.add(link.id)) {
+                continue;
+            }
+            if (!ids.contains(link.id)) {
+                _problems.add(String.format("missing %s %s (from %s)",
+                                            link.type, link.id, link.from));
+                continue;
+            }
+            for (Link next : _links.getOrDefault(link.id,
+                                                 Collections.emptyList())) {
+                work.push(next);
+            }
+        }
+        HashSet<ObjectId> referenced = new HashSet<ObjectId>();
+        for (List<Link> links : _links.values()) {
+            for (Link link : links) {
+                referenced.add(link.id);
+            }
+        }
+        for (ObjectId id : ids) {
+            if (!reachable.contains(id) && !referenced.contains(id)
+                && !_corrupt.contains(id)) {
+                _problems.add(String.format("dangling %s %s",
+                                            _types.get(id), id));
+            }
+        }
+        for (String problem : _problems) {
+            System.out.println(problem);
+        }
+        System.out.printf("Checked %d objects, %d bytes, in %.1f ms"
+                          + " (%.1f MB/s).%n", ids.size(), _bytes.get(),
+                          seconds * 1e3, _bytes.get() / 1e6 / seconds);
+        return _problems.size();
+    }
+
+    /** Hash object ID again, and collect the references it holds. */
+    private void verify(ObjectId id) {
+        try {
+            byte type = _store.type(id);
+            if (type == ObjectStore.BLOB) {
+                _types.put(id, "blob");
+                if (!id.equals(hash(id)) && !verifyCommit(id)) {
+                    corrupt(id);
+                }
+            } else if (type == ObjectStore.MANIFEST) {
+                _types.put(id, "blob");
+                List<Link> links = new ArrayList<Link>();
+                for (ObjectId chunk
+                         : ObjectStore.chunks(_store.readRaw(id))) {
+                    links.add(new Link(chunk, "chunk", "blob " + id));
+                }
+                _links.put(id, links);
+                if (!id.equals(hash(id))) {
+                    corrupt(id);
+                }
+            } else if (type == ObjectStore.TREE) {
+                verifyTree(id);
+            } else if (type == ObjectStore.COMMIT) {
+                if (!verifyCommit(id)) {
+                    corrupt(id);
+                }
+            } else {
+                corrupt(id);
+            }
+        } catch (GitletException excp) {
+            corrupt(id);
+        }
+    }
+
+    /** Check that object ID is a tree, and collect its references. */
+    private void verifyTree(ObjectId id) {
+        byte[] contents = _store.readRaw(id);
+        _bytes.addAndGet(contents.length);
+        _types.put(id, "tree");
+        if (!id.equals(ObjectId.fromBytes(Blob.sha1().digest(contents)))) {
+            corrupt(id);
+            return;
+        }
+        Tree tree = Tree.fromBytes(contents);
+        List<Link> links = new ArrayList<Link>();
+        for (ObjectId blob : tree.files().values()) {
+            links.add(new Link(blob, "blob", "tree " + id));
+        }
+        for (ObjectId dir : tree.dirs().values()) {
+            links.add(new Link(dir, "tree", "tree " + id));
+        }
+        _links.put(id, links);
+    }
+
+    /** Return true if object ID is a commit with that ID, collecting
+     *  its references.  Commits written by older versions were stored
+     *  untyped, and their IDs are not hashes of their contents. */
+    private boolean verifyCommit(ObjectId id) {
+        byte[] contents = _store.readRaw(id);
+        if (_store.type(id) == ObjectStore.COMMIT) {
+            _bytes.addAndGet(contents.length);
+        }
+        Commit commit;
+        try {
+            commit = Commit.fromBytes(contents);
+        } catch (GitletException | IllegalArgumentException excp) {
+            return false;
+        }
+        if (!id.equals(commit.getHash())) {
+            return false;
+        }
+        _types.put(id, "commit");
+        String from = "commit " + id;
+        List<Link> links = new ArrayList<Link>();
+        if (commit.getParent() != null) {
+            links.add(new Link(commit.getParent(), "commit", from));
+        }
+        if (commit.getCoParent() != null) {
+            links.add(new Link(commit.getCoParent(), "commit", from));
+        }
+        if (commit.getRoot() != null) {
+            links.add(new Link(commit.getRoot(), "tree", from));
+        } else {
+            for (ObjectId blob : commit.getTree().values()) {
+                links.add(new Link(blob, "blob", from));
+            }
+        }
+        _links.put(id, links);
+        return true;
+    }
+
+    /** Return the hash of the contents of object ID, reading it as a
+     *  stream. */
+    private ObjectId hash(ObjectId id) {
+        MessageDigest md = Blob.sha1();
+        byte[] buffer = new byte[Blob.BUFFER_SIZE];
+        try (InputStream in = _store.open(id)) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                md.update(buffer, 0, n);
+                _bytes.addAndGet(n);
+            }
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        return ObjectId.fromBytes(md.digest());
+    }
+
+    /** Record that object ID is corrupt. */
+    private void corrupt(ObjectId id) {
+        _types.putIfAbsent(id, "object");
+        _corrupt.add(id);
+        _problems.add("corrupt " + _types.get(id) + " " + id);
+    }
+
+    /** The objects checked. */
+    private final ObjectStore _store;
+    /** The type of each object read, by ID. */
+    private final Map<ObjectId, String> _types =
+        new ConcurrentHashMap<ObjectId, String>();
+    /** The references in each object that holds any, by ID. */
+    private final Map<ObjectId, List<Link>> _links =
+        new ConcurrentHashMap<ObjectId, List<Link>>();
+    /** The corrupt objects. */
+    private final Set<ObjectId> _corrupt = ConcurrentHashMap.newKeySet();
+    /** The problems found, in order. */
+    private final Set<String> _problems =
+        Collections.synchronizedSet(new TreeSet<String>());
+    /** Bytes read so far. */
+    private final AtomicLong _bytes = new AtomicLong();
+
+}
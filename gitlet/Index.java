@@ -1,7 +1,15 @@
 package gitlet;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A copy of newest snapshot.
@@ -10,17 +18,120 @@ import java.util.Set;
 public class Index implements Serializable {
     /** Construct index from commit COMMIT. */
     public Index(Commit commit) {
-        _tree = new HashMap<String, String>(commit.getTree());
-        _snapshot = new HashMap<String, String>(commit.getTree());
+        _tree = new HashMap<String, ObjectId>(commit.getTree());
+        _snapshot = commit.getTree();
+        _stat = new HashMap<String, Stat>();
+    }
+
+    /** Construct index from commit COMMIT, keeping the file stat data
+     *  recorded in OLD. */
+    public Index(Commit commit, Index old) {
+        this(commit);
+        if (old._stat != null) {
+            _stat.putAll(old._stat);
+        }
+    }
+
+    /** What the file system said about a file when it was last hashed.
+     *  If a file still has the same size, modification time and inode,
+     *  it still has the same contents, unless it was modified so soon
+     *  after being hashed that the times cannot tell the two apart. */
+    static class Stat {
+        /** File timestamps closer than this may not be distinguishable,
+         *  in nanoseconds. */
+        static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+        /** Stat data SIZE, MTIME and INODE for a file with content HASH,
+         *  taken at RECORDED nanoseconds since the epoch. */
+        Stat(long size, long mtime, long inode, long recorded,
+             ObjectId hash) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.recorded = recorded;
+            this.hash = hash;
+        }
+
+        /** Return the current stat data of FILE, with no hash, or null if
+         *  FILE does not exist. */
+        static Stat of(File file) {
+            try {
+                Map<String, Object> attrs;
+                try {
+                    attrs = Files.readAttributes(
+                        file.toPath(), "unix:size,lastModifiedTime,ino");
+                } catch (UnsupportedOperationException e) {
+                    attrs = Files.readAttributes(
+                        file.toPath(), "size,lastModifiedTime");
+                }
+                Object ino = attrs.get("ino");
+                return new Stat((Long) attrs.get("size"),
+                                ((FileTime) attrs.get("lastModifiedTime"))
+                                .to(TimeUnit.NANOSECONDS),
+                                ino == null ? 0 : (Long) ino,
+                                now(), null);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        /** Return the current time in nanoseconds since the epoch. */
+        static long now() {
+            Instant t = Instant.now();
+            return TimeUnit.SECONDS.toNanos(t.getEpochSecond()) + t.getNano();
+        }
+
+        /** Return this stat data labelled with content HASH. */
+        Stat withHash(ObjectId hash) {
+            return new Stat(size, mtime, inode, recorded, hash);
+        }
+
+        /** Return true if OTHER describes the same unchanged file. */
+        boolean matches(Stat other) {
+            return other != null && size == other.size
+                && mtime == other.mtime && inode == other.inode;
+        }
+
+        /** File size. */
+        final long size;
+        /** Modification time in nanoseconds since the epoch. */
+        final long mtime;
+        /** Inode number, or 0 if the file system has none. */
+        final long inode;
+        /** When this data was taken. */
+        final long recorded;
+        /** Content hash of the file. */
+        final ObjectId hash;
+    }
+
+    /** Return the content hash recorded for FILE if its current stat
+     *  data CURRENT shows it unchanged since, and otherwise null. */
+    public ObjectId cachedHash(String file, Stat current) {
+        Stat old = _stat.get(file);
+        if (old == null || old.hash == null || !old.matches(current)
+                || old.mtime + Stat.RACY_NANOS >= old.recorded) {
+            return null;
+        }
+        return old.hash;
+    }
+
+    /** Record stat data STAT for FILE. */
+    public void setStat(String file, Stat stat) {
+        _stat.put(file, stat);
+    }
+
+    /** Return the recorded stat data. */
+    public Map<String, Stat> getStats() {
+        return _stat;
     }
 
     /** Return file tree. */
-    public HashMap<String, String> getTree() {
+    public HashMap<String, ObjectId> getTree() {
         return _tree;
     }
 
     /** Add a file FILENAME with hash HASH. */
-    public void addFile(String filename, String hash) {
+    public void addFile(String filename, ObjectId hash) {
         _tree.put(filename, hash);
     }
 
@@ -32,8 +143,7 @@ public class Index implements Serializable {
      *  do nothing.
      */
     public boolean rmFile(String filename) {
-        String lastCommitRecord = _snapshot.get(filename);
-        String currentRecord = _tree.get(filename);
+        ObjectId lastCommitRecord = _snapshot.get(filename);
         if (lastCommitRecord == null) {
             _tree.remove(filename);
             return false;
@@ -48,14 +158,10 @@ public class Index implements Serializable {
     }
 
     /** Check whether a file FILE is tracked,
-     *  return its hash if tracked or empty.
+     *  return its hash if tracked or null.
      */
-    public String tracked(String file) {
-        if (_tree.containsKey(file)) {
-            return _tree.get(file);
-        } else {
-            return "";
-        }
+    public ObjectId tracked(String file) {
+        return _tree.get(file);
     }
 
     /** Return a key set. */
@@ -64,10 +170,38 @@ public class Index implements Serializable {
     }
 
     /** The file tree in this index. */
-    private HashMap<String, String> _tree;
+    private HashMap<String, ObjectId> _tree;
 
     /** File tree from last commit. */
-    private HashMap<String, String> _snapshot;
+    private HashMap<String, ObjectId> _snapshot;
+
+    /** Stat data of working files by name.  Not serialized; the
+     *  repository's store keeps it. */
+    private transient HashMap<String, Stat> _stat;
+
+    /** Read an index serialized by an older version, which kept blob
+     *  IDs as hex Strings, from IN. */
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        _tree = fromHex(_tree);
+        _snapshot = fromHex(_snapshot);
+        _stat = new HashMap<String, Stat>();
+    }
+
+    /** Return TREE, read from an older version, with its hex String
+     *  values turned into IDs. */
+    private static HashMap<String, ObjectId> fromHex(Map<String, ?> tree) {
+        HashMap<String, ObjectId> result = new HashMap<String, ObjectId>();
+        for (Map.Entry<String, ?> e : tree.entrySet()) {
+            result.put(e.getKey(), ObjectId.fromHex(e.getValue().toString()));
+        }
+        return result;
+    }
+
+    /** Kept so that indices written before this class changed can
+     *  still be read. */
+    private static final long serialVersionUID = 8734893070947070048L;
 
 }
 
@@ -1,6 +1,12 @@
 package gitlet;
 
 import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.regex.Pattern;
 
 /**
@@ -10,12 +16,21 @@ import java.util.regex.Pattern;
  */
 public class Main {
 
+    /** Longest gc grace period, in seconds, that is still representable
+     *  in milliseconds. */
+    private static final long MAX_GRACE = Long.MAX_VALUE / 1000;
+
+    /** Most threads a fetch or pull may copy objects on. */
+    private static final int MAX_JOBS = 64;
+
     /** Store repo. */
     private static Repo re;
     /** Store object dir. */
     private static File objectDir;
     /** Store working dir. */
     private static File workingDir;
+    /** Stamp of the repository's store when RE was last read or written. */
+    private static long repoStamp;
 
     /** Main function input ARGS. */
     public static void main(String... args) {
@@ -23,32 +38,69 @@ public class Main {
             System.out.println("Please enter a command.");
             System.exit(0);
         }
+        workingDir = new File(".");
+        objectDir = Utils.join(workingDir, ".gitlet");
+        if (args[0].equals("daemon")) {
+            doDaemon(args);
+            System.exit(0);
+        }
+        if (args[0].equals("serve")) {
+            doServe(args);
+            System.exit(0);
+        }
+        try {
+            if (!Daemon.forward(objectDir, args)) {
+                run(args);
+                Utils.stats("%s", CommitCache.SHARED);
+            }
+        } catch (GitletException e) {
+            System.out.println(e.getMessage());
+        }
+        System.exit(0);
+    }
+
+    /** Run the command in ARGS in this process, against the repository
+     *  in the current directory, holding its lock.  The repository is
+     *  kept between calls and only read again if another process has
+     *  written it since. */
+    static void run(String... args) {
         String command = args[0];
         workingDir = new File(".");
         objectDir = Utils.join(workingDir, ".gitlet");
         if (command.equals("init")) {
             doInit(args);
+            return;
         }
-        if (!Utils.join(objectDir, "REPO").exists()) {
+        if (!Repo.exists(objectDir)) {
             System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            return;
         }
-        re = Utils.readObject(Utils.join(objectDir, "REPO"), Repo.class);
+        RepoLock lock = RepoLock.acquire(objectDir);
+        try {
+            loadRepo();
+            dispatch(command, args);
+        } finally {
+            lock.close();
+        }
+    }
+
+    /** Run COMMAND, whose arguments are ARGS, against RE. */
+    private static void dispatch(String command, String... args) {
         try {
             if (command.equals("add-remote")) {
-                doAddRemote(args); System.exit(0);
+                doAddRemote(args); return;
             } else if (command.equals("push")) {
-                doPush(args); System.exit(0);
+                doPush(args); return;
             } else if (command.equals("pull")) {
-                doPull(args); System.exit(0);
+                doPull(args); return;
             } else if (command.equals("fetch")) {
-                doFetch(args); System.exit(0);
+                doFetch(args); return;
             } else if (command.equals("rm-remote")) {
-                doReRemote(args); System.exit(0);
+                doReRemote(args); return;
             }
         } catch (GitletException e) {
-            System.out.println(e.getMessage());
-            System.exit(0);
+            fail(e);
+            return;
         }
         if (command.equals("add")) {
             doAdd(args);
@@ -74,22 +126,105 @@ public class Main {
             doMerge(args);
         } else if (command.equals("checkout")) {
             doCheckout(args);
+        } else if (command.equals("commit-graph")) {
+            doCommitGraph(args);
+        } else if (command.equals("repack")) {
+            doRepack(args);
+        } else if (command.equals("gc")) {
+            doGc(args);
+        } else if (command.equals("fsck")) {
+            doFsck(args);
+        } else {
+            System.out.println("No command with that name exists.");
+        }
+    }
+
+    /** Forget the repository held between calls to run, so the next
+     *  reads it afresh, as after a command that failed part way. */
+    static void reset() {
+        re = null;
+    }
+
+    /** Read the repository into RE unless the copy we hold is current. */
+    private static void loadRepo() {
+        if (re == null || re.stamp() != repoStamp) {
+            re = Repo.open(objectDir);
+            repoStamp = re.stamp();
+        }
+    }
+
+    /** Write RE's changes back to disk. */
+    private static void saveRepo() {
+        re.save();
+        repoStamp = re.stamp();
+    }
+
+    /** Report the error E.  Whatever the failed command changed in RE
+     *  was never saved, so drop it and read the repository afresh. */
+    private static void fail(GitletException e) {
+        System.out.println(e.getMessage());
+        reset();
+    }
+
+    /** INPUT ARGS. */
+    private static void doDaemon(String... args) {
+        if (!Repo.exists(objectDir)) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        if (args.length == 2 && args[1].equals("--stop")) {
+            if (!Daemon.forward(objectDir, "daemon", "--stop")) {
+                System.out.println("No daemon is running.");
+            }
+            return;
+        }
+        if (args.length != 1) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        try {
+            Daemon.serve(objectDir);
+        } catch (GitletException e) {
+            fail(e);
+        }
+    }
+
+    /** INPUT ARGS. */
+    private static void doServe(String... args) {
+        int port = Transport.DEFAULT_PORT;
+        String address = null;
+        for (int i = 1; i < args.length; i += 1) {
+            if (args[i].matches("--port=[0-9]{1,5}")) {
+                port = Integer.parseInt(args[i].substring("--port=".length()));
+                if (port > Transport.MAX_PORT) {
+                    System.out.println("Incorrect operands.");
+                    return;
+                }
+            } else if (args[i].startsWith("--listen=")) {
+                address = args[i].substring("--listen=".length());
+            } else {
+                System.out.println("Incorrect operands.");
+                return;
+            }
+        }
+        try {
+            Transport.serve(workingDir, address, port);
+        } catch (GitletException e) {
+            System.out.println(e.getMessage());
         }
-        System.out.println("No command with that name exists.");
-        System.exit(0);
     }
 
     /** INPUT ARGS. */
     private static void doInit(String... args) {
-        if (Utils.join(objectDir, "REPO").exists()) {
+        if (Repo.exists(objectDir)) {
             System.out.print("A Gitlet version-control system");
             System.out.println(" already exists in the current directory.");
-            System.exit(0);
+            return;
         } else {
             objectDir.mkdir();
             re = new Repo();
-            Utils.writeObject(Utils.join(objectDir, "REPO"), re);
-            System.exit(0);
+            saveRepo();
+            return;
         }
     }
 
@@ -98,15 +233,15 @@ public class Main {
         if (args[1].equals("--")) {
             if (args.length != 3) {
                 System.out.println("Incorrect operands.");
-                System.exit(0);
+                return;
             } else {
                 try {
                     re.revertFile(args[2]);
-                    Utils.writeObject(Utils.join(objectDir, "REPO"), re);
-                    System.exit(0);
+                    saveRepo();
+                    return;
                 } catch (GitletException e) {
-                    System.out.println(e.getMessage());
-                    System.exit(0);
+                    fail(e);
+                    return;
                 }
             }
         }
@@ -115,59 +250,112 @@ public class Main {
             if (args.length == 2) {
                 try {
                     re.checkout2branch(args[1]);
-                    Utils.writeObject(Utils.join(objectDir, "REPO"), re);
-                    System.exit(0);
+                    saveRepo();
+                    return;
                 } catch (GitletException e) {
-                    System.out.println(e.getMessage());
-                    System.exit(0);
+                    fail(e);
+                    return;
                 }
             } else {
                 if (args.length != 4) {
                     System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    return;
                 }
                 if (!args[2].equals("--")) {
                     System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    return;
                 }
                 if (!Pattern.matches("[a-f0-9]+", args[1])) {
                     System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    return;
                 }
                 try {
-                    String id = re.changeBackShortID(args[1]);
+                    ObjectId id = re.changeBackShortID(args[1]);
                     re.revertFile(id, args[3]);
-                    Utils.writeObject(Utils.join(objectDir, "REPO"), re);
-                    System.exit(0);
+                    saveRepo();
+                    return;
                 } catch (GitletException e) {
-                    System.out.println(e.getMessage());
-                    System.exit(0);
+                    fail(e);
+                    return;
                 }
             }
         }
     }
 
 
-    /** INPUT ARGS. */
+    /** INPUT ARGS.  Each argument is a file, a directory, all of whose
+     *  files are added, or a glob pattern such as *.txt or src/**, which
+     *  is matched against the paths of all files in the working
+     *  directory.  The repository is saved once, after all are added. */
     private static void doAdd(String... args) {
-        if (args.length != 2) {
+        if (args.length < 2) {
             System.out.println("Incorrect operands.");
-            System.exit(0);
+            return;
         }
-        File file = Utils.join(workingDir, args[1]);
-        if (!file.exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
-        } else {
-            try {
-                re.addFile(args[1]);
-                Utils.writeObject(Utils.join(objectDir, "REPO"), re);
-                System.exit(0);
-            } catch (GitletException e) {
-                System.out.println(e.getMessage());
-                System.exit(0);
+        LinkedHashSet<String> files = new LinkedHashSet<String>();
+        List<String> all = null;
+        for (int i = 1; i < args.length; i += 1) {
+            String path = normalize(args[i]);
+            if (path == null) {
+                System.out.println("File does not exist.");
+                return;
+            }
+            File file = Utils.join(workingDir, path);
+            if (isGlob(path)) {
+                if (all == null) {
+                    all = Utils.plainFilesUnder(workingDir);
+                }
+                PathMatcher matcher =
+                    FileSystems.getDefault().getPathMatcher("glob:" + path);
+                int before = files.size();
+                for (String name : all) {
+                    if (matcher.matches(Paths.get(name))) {
+                        files.add(name);
+                    }
+                }
+                if (files.size() == before) {
+                    System.out.println("File does not exist.");
+                    return;
+                }
+            } else if (file.isDirectory()) {
+                String prefix = path.isEmpty() ? "" : path + "/";
+                for (String name : Utils.plainFilesUnder(file)) {
+                    files.add(prefix + name);
+                }
+            } else if (file.isFile()) {
+                files.add(path);
+            } else {
+                System.out.println("File does not exist.");
+                return;
             }
         }
+        try {
+            re.addFiles(files);
+            saveRepo();
+        } catch (GitletException e) {
+            fail(e);
+        }
+    }
+
+    /** Return PATH relative to the working directory, with its parts
+     *  separated by '/' and no "." or ".." parts, or "" for the working
+     *  directory itself.  Return null if PATH is absolute or leads out
+     *  of the working directory. */
+    private static String normalize(String path) {
+        if (isGlob(path)) {
+            return path;
+        }
+        Path result = Paths.get(path).normalize();
+        if (result.isAbsolute() || result.startsWith("..")) {
+            return null;
+        }
+        return result.toString().replace(File.separatorChar, '/');
+    }
+
+    /** Return true if PATH is a glob pattern rather than a file name. */
+    private static boolean isGlob(String path) {
+        return path.indexOf('*') >= 0 || path.indexOf('?') >= 0
+            || path.indexOf('[') >= 0 || path.indexOf('{') >= 0;
     }
 
 
@@ -175,16 +363,16 @@ public class Main {
     private static void doReset(String... args) {
         if (args.length != 2) {
             System.out.println("Incorrect operands.");
-            System.exit(0);
+            return;
         }
         try {
-            String id = re.changeBackShortID(args[1]);
+            ObjectId id = re.changeBackShortID(args[1]);
             re.revertWorkingFolder(id);
-            Utils.writeObject(Utils.join(objectDir, "REPO"), re);
-            System.exit(0);
+            saveRepo();
+            return;
         } catch (GitletException e) {
-            System.out.println(e.getMessage());
-            System.exit(0);
+            fail(e);
+            return;
         }
     }
 
@@ -192,20 +380,20 @@ public class Main {
     private static void doCommit(String... args) {
         if (args.length != 2) {
             System.out.println("Incorrect operands.");
-            System.exit(0);
+            return;
         }
         String message = args[1];
         try {
             if (message.equals("")) {
                 System.out.println("Please enter a commit message.");
-                System.exit(0);
+                return;
             }
             re.newCommit(message);
-            Utils.writeObject(Utils.join(objectDir, "REPO"), re);
-            System.exit(0);
+            saveRepo();
+            return;
         } catch (GitletException e) {
-            System.out.println(e.getMessage());
-            System.exit(0);
+            fail(e);
+            return;
         }
     }
 
@@ -213,16 +401,16 @@ public class Main {
     private static void doRm(String... args) {
         if (args.length != 2) {
             System.out.println("Incorrect operands.");
-            System.exit(0);
+            return;
         }
         File file = Utils.join(workingDir, args[1]);
         try {
             re.removeFile(args[1]);
-            Utils.writeObject(Utils.join(objectDir, "REPO"), re);
-            System.exit(0);
+            saveRepo();
+            return;
         } catch (GitletException e) {
-            System.out.println(e.getMessage());
-            System.exit(0);
+            fail(e);
+            return;
         }
     }
 
@@ -230,35 +418,36 @@ public class Main {
     private static void doLog(String... args) {
         if (args.length != 1) {
             System.out.println("Incorrect operands.");
-            System.exit(0);
+            return;
         }
         re.printLog();
-        System.exit(0);
+        return;
     }
 
     /** INPUT ARGS. */
     private static void doStatus(String... args) {
         if (args.length != 1) {
             System.out.println("Incorrect operands.");
-            System.exit(0);
+            return;
         }
         re.printStatus();
-        System.exit(0);
+        saveRepo();
+        return;
     }
 
     /** INPUT ARGS. */
     private static void doBranch(String... args) {
         if (args.length != 2) {
             System.out.println("Incorrect operands.");
-            System.exit(0);
+            return;
         }
         try {
             re.createBranch(args[1]);
-            Utils.writeObject(Utils.join(objectDir, "REPO"), re);
-            System.exit(0);
+            saveRepo();
+            return;
         } catch (GitletException e) {
-            System.out.println(e.getMessage());
-            System.exit(0);
+            fail(e);
+            return;
         }
     }
 
@@ -266,15 +455,15 @@ public class Main {
     private static void doRmBranch(String... args) {
         if (args.length != 2) {
             System.out.println("Incorrect operands.");
-            System.exit(0);
+            return;
         }
         try {
             re.removeBranch(args[1]);
-            Utils.writeObject(Utils.join(objectDir, "REPO"), re);
-            System.exit(0);
+            saveRepo();
+            return;
         } catch (GitletException e) {
-            System.out.println(e.getMessage());
-            System.exit(0);
+            fail(e);
+            return;
         }
     }
 
@@ -282,14 +471,14 @@ public class Main {
     private static void doFind(String... args) {
         if (args.length != 2) {
             System.out.println("Incorrect operands:");
-            System.exit(0);
+            return;
         }
         try {
             re.doFind(args[1]);
-            System.exit(0);
+            return;
         } catch (GitletException e) {
-            System.out.println(e.getMessage());
-            System.exit(0);
+            fail(e);
+            return;
         }
     }
 
@@ -297,56 +486,142 @@ public class Main {
     private static void doGlobalLog(String... args) {
         if (args.length != 1) {
             System.out.println("Incorrect operands:");
-            System.exit(0);
+            return;
         }
         re.printGlobalLog();
-        System.exit(0);
+        return;
     }
 
     /** INPUT ARGS. */
     private static void doMerge(String... args) {
         if (args.length != 2) {
             System.out.println("Incorrect operands.");
-            System.exit(0);
+            return;
         }
         try {
             re.merge(args[1]);
-            Utils.writeObject(Utils.join(objectDir, "REPO"), re);
-            System.exit(0);
+            saveRepo();
+            return;
         } catch (GitletException e) {
-            System.out.println(e.getMessage());
-            System.exit(0);
+            fail(e);
+            return;
+        }
+    }
+
+    /** INPUT ARGS. */
+    private static void doCommitGraph(String... args) {
+        if (args.length != 1) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        re.rebuildCommitGraph();
+    }
+
+    /** INPUT ARGS. */
+    private static void doRepack(String... args) {
+        if (args.length != 1) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        try {
+            re.repack();
+        } catch (GitletException e) {
+            fail(e);
+        }
+    }
+
+    /** INPUT ARGS. */
+    private static void doFsck(String... args) {
+        if (args.length != 1) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        try {
+            re.fsck();
+        } catch (GitletException e) {
+            fail(e);
+        }
+    }
+
+    /** INPUT ARGS.  Unreferenced objects are only deleted once they are
+     *  older than the grace period, in seconds: by default
+     *  gitlet.gc.grace, or an hour, and otherwise given as --grace=N. */
+    private static void doGc(String... args) {
+        long grace = Long.getLong("gitlet.gc.grace", 3600);
+        if (args.length == 2 && args[1].matches("--grace=[0-9]{1,18}")) {
+            grace = Long.parseLong(args[1].substring("--grace=".length()));
+        } else if (args.length != 1) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        if (grace < 0 || grace > MAX_GRACE) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        try {
+            re.gc(grace * 1000);
+            saveRepo();
+        } catch (GitletException e) {
+            fail(e);
         }
     }
 
     /** INPUT ARGS. */
     private static void doAddRemote(String... args) {
         re.addRemote(args[1], new File(args[2]));
-        Utils.writeObject(Utils.join(objectDir, "REPO"), re);
+        saveRepo();
     }
 
     /** INPUT ARGS. */
     private static void doFetch(String... args) {
-        re.fetchRemoteBranch(args[1], args[2]);
-        Utils.writeObject(Utils.join(objectDir, "REPO"), re);
+        int jobs = jobs(args);
+        if (jobs <= 0) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        re.fetchRemoteBranch(args[1], args[2], jobs);
+        saveRepo();
     }
 
     /** INPUT ARGS. */
     private static void doPull(String... args) {
-        re.pull(args[1], args[2]);
-        Utils.writeObject(Utils.join(objectDir, "REPO"), re);
+        int jobs = jobs(args);
+        if (jobs <= 0) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        re.pull(args[1], args[2], jobs);
+        saveRepo();
+    }
+
+    /** Return the number of threads to copy objects on that ARGS, a
+     *  remote name and branch possibly followed by --jobs=N, ask for, or
+     *  0 if ARGS are malformed or ask for more than MAX_JOBS.  By
+     *  default, gitlet.jobs threads are used, or as many as there are
+     *  processors, up to MAX_JOBS. */
+    private static int jobs(String... args) {
+        if (args.length == 4 && args[3].matches("--jobs=[1-9][0-9]{0,2}")) {
+            int jobs =
+                Integer.parseInt(args[3].substring("--jobs=".length()));
+            return jobs > MAX_JOBS ? 0 : jobs;
+        } else if (args.length == 3) {
+            int jobs = Integer.getInteger("gitlet.jobs",
+                                          WorkTreeScanner.parallelism());
+            return Math.max(1, Math.min(jobs, MAX_JOBS));
+        }
+        return 0;
     }
 
     /** INPUT ARGS. */
     private static void doPush(String... args) {
         re.push(args[1], args[2]);
-        Utils.writeObject(Utils.join(objectDir, "REPO"), re);
+        saveRepo();
     }
 
     /** INPUT ARGS. */
     private static void doReRemote(String... args) {
         re.removeRemote(args[1]);
-        Utils.writeObject(Utils.join(objectDir, "REPO"), re);
+        saveRepo();
     }
 
 }
@@ -0,0 +1,156 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Finds the best common ancestors of two commits, following both parents
+ * of merge commits.  Commits are visited newest generation first, and
+ * each carries paint bits saying which side reaches it; a commit painted
+ * by both sides is a common ancestor, and everything below it is marked
+ * stale.  A commit's children all have higher generations, so its
+ * paint is complete by the time it leaves the queue, and the walk can
+ * end as soon as only stale commits are left.
+ *  @author XiWang */
+
+public class MergeBase {
+
+    /** Reachable from the first commit. */
+    private static final int PARENT1 = 1;
+    /** Reachable from the second commit. */
+    private static final int PARENT2 = 2;
+    /** Below a common ancestor already found. */
+    private static final int STALE = 4;
+    /** Already in the result. */
+    private static final int RESULT = 8;
+
+    /** A merge-base finder over GRAPH. */
+    MergeBase(CommitGraph graph) {
+        _graph = graph;
+    }
+
+    /** Return the best common ancestors of the commits at positions ONE
+     *  and TWO, highest generation first.  None of them is an ancestor
+     *  of another. */
+    List<Integer> find(int one, int two) {
+        _visited = 0;
+        List<Integer> result = new ArrayList<Integer>();
+        if (one == two) {
+            result.add(one);
+            return result;
+        }
+        HashMap<Integer, Integer> flags = new HashMap<Integer, Integer>();
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>(
+            (a, b) -> newerFirst(a, b));
+        flags.put(one, PARENT1);
+        flags.put(two, PARENT2);
+        queue.add(one);
+        queue.add(two);
+        int live = 2;
+        while (live > 0) {
+            int pos = queue.poll();
+            _visited += 1;
+            int f = flags.get(pos) & (PARENT1 | PARENT2 | STALE);
+            if ((f & STALE) == 0) {
+                live -= 1;
+            }
+            if (f == (PARENT1 | PARENT2)) {
+                if ((flags.get(pos) & RESULT) == 0) {
+                    flags.put(pos, flags.get(pos) | RESULT);
+                    result.add(pos);
+                }
+                f |= STALE;
+            }
+            for (int p : new int[] {_graph.parent(pos),
+                                    _graph.coparent(pos)}) {
+                if (p == CommitGraph.NONE) {
+                    continue;
+                }
+                int old = flags.getOrDefault(p, 0);
+                if ((old & f) == f) {
+                    continue;
+                }
+                flags.put(p, old | f);
+                if (old == 0) {
+                    queue.add(p);
+                    if ((f & STALE) == 0) {
+                        live += 1;
+                    }
+                } else if ((old & STALE) == 0 && (f & STALE) != 0) {
+                    live -= 1;
+                }
+            }
+        }
+        return removeRedundant(result);
+    }
+
+    /** Return the number of commits the last search visited. */
+    int visited() {
+        return _visited;
+    }
+
+    /** Return CANDIDATES without any that is an ancestor of another,
+     *  highest generation first. */
+    private List<Integer> removeRedundant(List<Integer> candidates) {
+        candidates.sort((a, b) -> newerFirst(a, b));
+        List<Integer> result = new ArrayList<Integer>();
+        for (int c : candidates) {
+            boolean redundant = false;
+            for (int other : candidates) {
+                if (other != c && reaches(other, c)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                result.add(c);
+            }
+        }
+        return result;
+    }
+
+    /** Return true if TARGET is an ancestor of FROM.  Commits with a lower
+     *  generation than TARGET cannot lead to it and are not explored. */
+    private boolean reaches(int from, int target) {
+        int floor = _graph.generation(target);
+        ArrayList<Integer> stack = new ArrayList<Integer>();
+        HashMap<Integer, Boolean> seen = new HashMap<Integer, Boolean>();
+        stack.add(from);
+        while (!stack.isEmpty()) {
+            int pos = stack.remove(stack.size() - 1);
+            if (pos == target) {
+                return true;
+            }
+            if (seen.put(pos, true) != null
+                    || _graph.generation(pos) <= floor) {
+                continue;
+            }
+            _visited += 1;
+            for (int p : new int[] {_graph.parent(pos),
+                                    _graph.coparent(pos)}) {
+                if (p != CommitGraph.NONE) {
+                    stack.add(p);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Order positions A and B by decreasing generation, then by
+     *  decreasing commit time. */
+    private int newerFirst(int a, int b) {
+        int cmp = Integer.compare(_graph.generation(b), _graph.generation(a));
+        if (cmp != 0) {
+            return cmp;
+        }
+        return Long.compare(_graph.time(b), _graph.time(a));
+    }
+
+    /** The graph searched. */
+    private CommitGraph _graph;
+    /** Commits visited by the last search. */
+    private int _visited;
+
+}
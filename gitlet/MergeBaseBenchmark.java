@@ -0,0 +1,81 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times MergeBase on synthetic histories in which two long-lived branches
+ * merge each other back and forth.  Run with
+ *     java gitlet.MergeBaseBenchmark [MERGES...]
+ *  @author XiWang */
+
+public class MergeBaseBenchmark {
+
+    /** Run the benchmark for each number of merges in ARGS. */
+    public static void main(String... args) throws IOException {
+        if (args.length == 0) {
+            args = new String[] {"1000", "4000", "16000"};
+        }
+        System.out.printf("%8s %8s %10s %10s %10s%n", "merges", "commits",
+                          "heads(ms)", "deep(ms)", "visited");
+        for (String arg : args) {
+            run(Integer.parseInt(arg));
+        }
+    }
+
+    /** Build a criss-cross history with MERGES merge commits and time
+     *  merge-base queries over it. */
+    private static void run(int merges) throws IOException {
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        try {
+            Index empty = new Index(new Commit());
+            List<Commit> all = new ArrayList<Commit>();
+            Commit root = new Commit();
+            all.add(root);
+            Commit a = root, b = root;
+            for (int i = 0; i < merges; i += 1) {
+                a = new Commit(empty, "a" + i, a.getHash());
+                b = new Commit(empty, "b" + i, b.getHash());
+                all.add(a);
+                all.add(b);
+                Commit m;
+                if (i % 2 == 0) {
+                    m = new Commit(empty, "merge a" + i, a.getHash());
+                    m.setCoParent(b.getHash());
+                    all.add(m);
+                    a = m;
+                } else {
+                    m = new Commit(empty, "merge b" + i, b.getHash());
+                    m.setCoParent(a.getHash());
+                    all.add(m);
+                    b = m;
+                }
+            }
+            CommitGraph graph = new CommitGraph(dir);
+            graph.rebuild(all);
+            MergeBase finder = new MergeBase(graph);
+            int heads = graph.lookup(a.getHash());
+            int other = graph.lookup(b.getHash());
+            int deep = graph.lookup(all.get(1).getHash());
+            finder.find(heads, other);
+            long start = System.nanoTime();
+            finder.find(heads, other);
+            double headMs = (System.nanoTime() - start) / 1e6;
+            int visited = finder.visited();
+            start = System.nanoTime();
+            finder.find(heads, deep);
+            double deepMs = (System.nanoTime() - start) / 1e6;
+            System.out.printf("%8d %8d %10.3f %10.3f %10d%n", merges,
+                              graph.size(), headMs, deepMs, visited);
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+}
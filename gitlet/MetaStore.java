@@ -0,0 +1,304 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Repository metadata kept as a stream of small records.  META holds a
+ * compacted snapshot of the whole state, and JOURNAL holds the records
+ * appended since.  A command only appends what it changed; the journal
+ * is folded back into META once it outgrows it.
+ *  @author XiWang */
+
+public class MetaStore {
+
+    /** A commit hash appended to the commit list. */
+    static final byte COMMIT = 1;
+    /** A commit hash and its message. */
+    static final byte MESSAGE = 2;
+    /** A branch name and the commit it points at. */
+    static final byte BRANCH = 3;
+    /** A removed branch name. */
+    static final byte RM_BRANCH = 4;
+    /** The name of the current branch. */
+    static final byte CURRENT = 5;
+    /** A remote name and its path. */
+    static final byte REMOTE = 6;
+    /** A removed remote name. */
+    static final byte RM_REMOTE = 7;
+    /** The index was reset to the head commit. */
+    static final byte INDEX_RESET = 8;
+    /** A file name and the blob staged for it. */
+    static final byte STAGE = 9;
+    /** A file name dropped from the index. */
+    static final byte UNSTAGE = 10;
+    /** The snapshot generation a file belongs to. */
+    static final byte EPOCH = 11;
+    /** A file name, its content hash, and its size, modification time,
+     *  inode and the time these were taken. */
+    static final byte STAT = 12;
+
+    /** Bits of a stamp below the epoch, left for the journal's length,
+     *  which never comes near 2^40 bytes before it is compacted. */
+    private static final int EPOCH_SHIFT = 40;
+
+    /** Journal size below which we never bother compacting. */
+    private static final long MIN_COMPACT_SIZE = 1 << 16;
+
+    /** One record: an operation OP and its FIELDS. */
+    static class Record {
+        /** A record OP with FIELDS. */
+        Record(byte op, String... fields) {
+            this.op = op;
+            this.fields = fields;
+        }
+
+        /** The operation. */
+        final byte op;
+        /** Its operands. */
+        final String[] fields;
+    }
+
+    /** A store kept in OBJECTDIR. */
+    MetaStore(File objectDir) {
+        _meta = Utils.join(objectDir, "META");
+        _journal = Utils.join(objectDir, "JOURNAL");
+        _pending = new ArrayList<Record>();
+    }
+
+    /** Return true if a snapshot has been written. */
+    boolean exists() {
+        return _meta.exists();
+    }
+
+    /** Return a value that changes whenever the store is written: the
+     *  epoch of the snapshot, which each compaction advances, and the
+     *  length of the journal, which only grows until the next. */
+    long stamp() {
+        return (readEpoch(_meta) << EPOCH_SHIFT) + _journal.length();
+    }
+
+    /** Queue a record OP with FIELDS for the next flush. */
+    void record(byte op, String... fields) {
+        _pending.add(new Record(op, fields));
+    }
+
+    /** Return every record in the snapshot and then in the journal. */
+    List<Record> replay() {
+        List<Record> result = new ArrayList<Record>();
+        _epoch = readRecords(_meta, result);
+        List<Record> journal = new ArrayList<Record>();
+        long[] whole = new long[1];
+        if (readRecords(_journal, journal, whole) == _epoch) {
+            result.addAll(journal);
+            _damaged = whole[0] < _journal.length();
+        } else {
+            _damaged = _journal.exists();
+        }
+        return result;
+    }
+
+    /** Append the queued records to the journal.  If the journal has
+     *  grown past the snapshot, or was found damaged, so that records
+     *  appended to it would be lost, replace both by the records STATE
+     *  supplies.  STATE is only asked for them then, since building a
+     *  whole snapshot costs as much as the history it describes. */
+    void flush(Supplier<List<Record>> state) {
+        if (!_meta.exists() || _damaged
+                || (_journal.length() > MIN_COMPACT_SIZE
+                    && _journal.length() > _meta.length())) {
+            compact(state.get());
+            return;
+        }
+        if (_pending.isEmpty()) {
+            return;
+        }
+        if (!_journal.exists()) {
+            _pending.add(0, new Record(EPOCH, Long.toString(_epoch)));
+        }
+        writeRecords(_journal, _pending, true);
+        _pending.clear();
+    }
+
+    /** Write STATE as the new snapshot and start an empty journal, for
+     *  changes that records cannot express, such as forgetting a commit,
+     *  as well as to keep the journal short. */
+    void compact(List<Record> state) {
+        _epoch += 1;
+        List<Record> records = new ArrayList<Record>();
+        records.add(new Record(EPOCH, Long.toString(_epoch)));
+        records.addAll(state);
+        File tmp = new File(_meta.getPath() + ".tmp");
+        writeRecords(tmp, records, false);
+        try {
+            Files.move(tmp.toPath(), _meta.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new GitletException(e.getMessage());
+        }
+        _journal.delete();
+        _pending.clear();
+        _damaged = false;
+    }
+
+    /** Return the epoch named by the first record of FILE, where
+     *  compact puts it, or -1 if it has none. */
+    private static long readEpoch(File file) {
+        if (!file.exists()) {
+            return -1;
+        }
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            Record r = decode(body);
+            return r.op == EPOCH ? Long.parseLong(r.fields[0]) : -1;
+        } catch (EOFException | FileNotFoundException e) {
+            return -1;
+        } catch (IOException e) {
+            throw new GitletException(e.getMessage());
+        }
+    }
+
+    /** Read FILE's records into RESULT and return the epoch it names,
+     *  or -1 if it has none.  A torn record at the end is ignored. */
+    private static long readRecords(File file, List<Record> result) {
+        return readRecords(file, result, new long[1]);
+    }
+
+    /** Read FILE's records into RESULT and return the epoch it names,
+     *  or -1 if it has none, setting WHOLE[0] to the number of bytes of
+     *  whole records read.  A torn record at the end is ignored. */
+    private static long readRecords(File file, List<Record> result,
+                                    long[] whole) {
+        long epoch = -1;
+        whole[0] = 0;
+        if (!file.exists()) {
+            return epoch;
+        }
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length < 0 || length > file.length()) {
+                    break;
+                }
+                byte[] body = new byte[length];
+                try {
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    break;
+                }
+                Record r;
+                try {
+                    r = decode(body);
+                } catch (IOException e) {
+                    break;
+                }
+                if (r.op == EPOCH && (r.fields.length != 1
+                                      || !r.fields[0].matches("[0-9]{1,18}"))) {
+                    break;
+                }
+                whole[0] += 4 + length;
+                if (r.op == EPOCH) {
+                    epoch = Long.parseLong(r.fields[0]);
+                } else {
+                    result.add(r);
+                }
+            }
+        } catch (IOException e) {
+            throw new GitletException(e.getMessage());
+        }
+        return epoch;
+    }
+
+    /** Write RECORDS to FILE, appending if APPEND. */
+    private static void writeRecords(File file, List<Record> records,
+                                     boolean append) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (Record r : records) {
+                byte[] body = encode(r);
+                out.writeInt(body.length);
+                out.write(body);
+            }
+            try (FileOutputStream str = new FileOutputStream(file, append)) {
+                bytes.writeTo(str);
+            }
+        } catch (IOException e) {
+            throw new GitletException(e.getMessage());
+        }
+    }
+
+    /** Return the bytes of R. */
+    private static byte[] encode(Record r) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(r.op);
+        out.writeShort(r.fields.length);
+        for (String field : r.fields) {
+            byte[] b = field.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the record whose bytes are BODY.  Counts and lengths that
+     *  do not fit in BODY mark it as damaged, like a torn record. */
+    private static Record decode(byte[] body) throws IOException {
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(body));
+        byte op = in.readByte();
+        int count = in.readShort();
+        if (count < 0 || count > in.available() / Integer.BYTES) {
+            throw new IOException("Bad field count in record.");
+        }
+        String[] fields = new String[count];
+        for (int i = 0; i < fields.length; i += 1) {
+            int length = in.readInt();
+            if (length < 0 || length > in.available()) {
+                throw new IOException("Bad field length in record.");
+            }
+            byte[] b = new byte[length];
+            in.readFully(b);
+            fields[i] = new String(b, StandardCharsets.UTF_8);
+        }
+        return new Record(op, fields);
+    }
+
+    /** The snapshot file. */
+    private File _meta;
+    /** The journal file. */
+    private File _journal;
+    /** Records not yet written. */
+    private List<Record> _pending;
+    /** Generation of the current snapshot. */
+    private long _epoch;
+    /** True if the journal ends in a torn record or belongs to another
+     *  snapshot. */
+    private boolean _damaged;
+
+}
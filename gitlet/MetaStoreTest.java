@@ -0,0 +1,180 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of the journaled metadata store.
+ *  @author XiWang */
+public class MetaStoreTest {
+
+    /** Records in a snapshot and then the journal are replayed in order
+     *  by a store opened afresh. */
+    @Test
+    public void replaysSnapshotThenJournal() throws IOException {
+        File dir = Files.createTempDirectory("meta").toFile();
+        try {
+            MetaStore store = new MetaStore(dir);
+            store.flush(() -> List.of(branch("master", "1")));
+            store.record(MetaStore.BRANCH, "other", "2");
+            store.record(MetaStore.CURRENT, "other");
+            store.flush(() -> List.of());
+            assertEquals(List.of("3 master 1", "3 other 2", "5 other"),
+                         replay(dir));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /** A record torn off at the end of the journal is ignored, and the
+     *  changes saved after it are kept. */
+    @Test
+    public void recoversFromTornJournal() throws IOException {
+        File dir = Files.createTempDirectory("meta").toFile();
+        try {
+            MetaStore store = new MetaStore(dir);
+            store.flush(() -> List.of(branch("master", "1")));
+            store.record(MetaStore.BRANCH, "other", "2");
+            store.flush(() -> List.of());
+            try (FileOutputStream out = new FileOutputStream(
+                     Utils.join(dir, "JOURNAL"), true)) {
+                out.write(new byte[] {0, 0, 0, 40, 3, 0});
+            }
+            assertEquals(List.of("3 master 1", "3 other 2"), replay(dir));
+
+            store = new MetaStore(dir);
+            store.replay();
+            store.record(MetaStore.BRANCH, "third", "3");
+            store.flush(() -> List.of(branch("master", "1"),
+                                      branch("other", "2"),
+                                      branch("third", "3")));
+            store.record(MetaStore.RM_BRANCH, "other");
+            store.flush(() -> List.of());
+            assertEquals(List.of("3 master 1", "3 other 2", "3 third 3",
+                                 "4 other"),
+                         replay(dir));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /** Records whose field counts or lengths are negative or run past
+     *  their ends are treated as torn, and nothing after them is
+     *  replayed. */
+    @Test
+    public void rejectsBadFieldLengths() throws IOException {
+        byte[][] bad = {
+            {0, 0, 0, 3, 3, (byte) 0xff, (byte) 0xff},
+            {0, 0, 0, 3, 3, 0x7f, (byte) 0xff},
+            {0, 0, 0, 7, 3, 0, 1, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+             (byte) 0xff},
+            {0, 0, 0, 7, 3, 0, 1, 0, 0, 0, 9},
+            {0, 0, 0, 3, MetaStore.EPOCH, 0, 0},
+        };
+        for (byte[] record : bad) {
+            File dir = Files.createTempDirectory("meta").toFile();
+            try {
+                MetaStore store = new MetaStore(dir);
+                store.flush(() -> List.of(branch("master", "1")));
+                store.record(MetaStore.BRANCH, "other", "2");
+                store.flush(() -> List.of());
+                File journal = Utils.join(dir, "JOURNAL");
+                try (FileOutputStream out =
+                         new FileOutputStream(journal, true)) {
+                    out.write(record);
+                }
+                assertEquals(List.of("3 master 1", "3 other 2"),
+                             replay(dir));
+            } finally {
+                delete(dir);
+            }
+        }
+    }
+
+    /** A journal left from an older snapshot is not replayed. */
+    @Test
+    public void ignoresJournalOfOtherEpoch() throws IOException {
+        File dir = Files.createTempDirectory("meta").toFile();
+        try {
+            MetaStore store = new MetaStore(dir);
+            store.flush(() -> List.of(branch("master", "1")));
+            store.record(MetaStore.BRANCH, "other", "2");
+            store.flush(() -> List.of());
+            File journal = Utils.join(dir, "JOURNAL");
+            byte[] old = Files.readAllBytes(journal.toPath());
+            store.compact(List.of(branch("master", "3")));
+            Files.write(journal.toPath(), old);
+            assertEquals(List.of("3 master 3"), replay(dir));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /** The stamp changes with every write, including a compaction that
+     *  leaves the journal as long as it was. */
+    @Test
+    public void stampChangesOnEveryWrite() throws IOException {
+        File dir = Files.createTempDirectory("meta").toFile();
+        try {
+            MetaStore store = new MetaStore(dir);
+            store.flush(() -> List.of(branch("master", "1")));
+            long first = store.stamp();
+            store.record(MetaStore.BRANCH, "other", "2");
+            store.flush(() -> List.of());
+            long second = store.stamp();
+            store.compact(List.of(branch("master", "1")));
+            long third = store.stamp();
+            assertNotEquals(first, second);
+            assertNotEquals(second, third);
+            assertNotEquals(first, third);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /** The snapshot is only built when the store compacts. */
+    @Test
+    public void buildsSnapshotOnlyToCompact() throws IOException {
+        File dir = Files.createTempDirectory("meta").toFile();
+        try {
+            MetaStore store = new MetaStore(dir);
+            store.flush(() -> List.of(branch("master", "1")));
+            store.record(MetaStore.BRANCH, "other", "2");
+            store.flush(() -> {
+                throw new AssertionError("built a snapshot");
+            });
+            assertEquals(List.of("3 master 1", "3 other 2"), replay(dir));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /** Return a record pointing branch NAME at HASH. */
+    private static MetaStore.Record branch(String name, String hash) {
+        return new MetaStore.Record(MetaStore.BRANCH, name, hash);
+    }
+
+    /** Return the records a new store in DIR replays, each as its
+     *  operation and fields. */
+    private static List<String> replay(File dir) {
+        List<String> result = new ArrayList<String>();
+        for (MetaStore.Record r : new MetaStore(dir).replay()) {
+            result.add(r.op + " " + String.join(" ", r.fields));
+        }
+        return result;
+    }
+
+    /** Remove DIR and the files in it. */
+    private static void delete(File dir) {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+}
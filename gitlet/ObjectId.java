@@ -0,0 +1,191 @@
+package gitlet;
+
+import java.util.Arrays;
+
+/**
+ * The SHA-1 name of a stored object: 20 bytes held in three primitive
+ * fields, rather than a 40-character String.  ObjectIds are immutable,
+ * compare without allocating, and order the same way as their hex
+ * names.
+ *  @author XiWang */
+
+public final class ObjectId implements Comparable<ObjectId> {
+
+    /** Bytes in an ID. */
+    static final int LENGTH = 20;
+
+    /** Hex digit values by character, -1 for non-digits. */
+    private static final byte[] DIGIT_VALUE = new byte[128];
+    /** Hex digits by value. */
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    static {
+        Arrays.fill(DIGIT_VALUE, (byte) -1);
+        for (int i = 0; i < DIGITS.length; i += 1) {
+            DIGIT_VALUE[DIGITS[i]] = (byte) i;
+            DIGIT_VALUE[Character.toUpperCase(DIGITS[i])] = (byte) i;
+        }
+    }
+
+    /** An ID made of the 20 bytes W1, W2 and W3, most significant
+     *  first. */
+    private ObjectId(long w1, long w2, int w3) {
+        _w1 = w1;
+        _w2 = w2;
+        _w3 = w3;
+    }
+
+    /** Return the ID made of the 20 bytes of BYTES starting at OFF. */
+    static ObjectId fromBytes(byte[] bytes, int off) {
+        return new ObjectId(getLong(bytes, off), getLong(bytes, off + 8),
+                            (int) (getLong(bytes, off + 12)));
+    }
+
+    /** Return the ID made of the 20 bytes of BYTES. */
+    static ObjectId fromBytes(byte[] bytes) {
+        if (bytes.length != LENGTH) {
+            throw new IllegalArgumentException("object IDs are 20 bytes");
+        }
+        return fromBytes(bytes, 0);
+    }
+
+    /** Return the ID whose hex name is HEX. */
+    static ObjectId fromHex(String hex) {
+        if (!isHex(hex)) {
+            throw new IllegalArgumentException("not an object ID: " + hex);
+        }
+        return new ObjectId(hexLong(hex, 0), hexLong(hex, 16),
+                            (int) hexLong(hex, 32));
+    }
+
+    /** Return the ID whose hex name is HEX, or null if HEX is null or
+     *  empty. */
+    static ObjectId fromHexOrNull(String hex) {
+        if (hex == null || hex.isEmpty()) {
+            return null;
+        }
+        return fromHex(hex);
+    }
+
+    /** Return true if S is a full-length hex object name. */
+    static boolean isHex(String s) {
+        if (s == null || s.length() != 2 * LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (c >= 128 || DIGIT_VALUE[c] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the 20 bytes of this ID. */
+    byte[] toBytes() {
+        byte[] result = new byte[LENGTH];
+        copyTo(result, 0);
+        return result;
+    }
+
+    /** Store the 20 bytes of this ID into BYTES at OFF. */
+    void copyTo(byte[] bytes, int off) {
+        putLong(bytes, off, _w1);
+        putLong(bytes, off + 8, _w2);
+        for (int i = 0; i < 4; i += 1) {
+            bytes[off + 16 + i] = (byte) (_w3 >>> (24 - 8 * i));
+        }
+    }
+
+    /** Return the first byte of this ID, from 0 to 255. */
+    int firstByte() {
+        return (int) (_w1 >>> 56);
+    }
+
+    /** Return the first N hex digits of this ID. */
+    String abbreviate(int n) {
+        return toString().substring(0, n);
+    }
+
+    /** Return true if my hex name starts with PREFIX. */
+    boolean startsWith(String prefix) {
+        return toString().startsWith(prefix);
+    }
+
+    @Override
+    public int compareTo(ObjectId other) {
+        int cmp = Long.compareUnsigned(_w1, other._w1);
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(_w2, other._w2);
+        }
+        if (cmp == 0) {
+            cmp = Integer.compareUnsigned(_w3, other._w3);
+        }
+        return cmp;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId other = (ObjectId) obj;
+        return _w1 == other._w1 && _w2 == other._w2 && _w3 == other._w3;
+    }
+
+    /** The bytes of a SHA-1 are already uniformly distributed, so the
+     *  first four serve as the hash code. */
+    @Override
+    public int hashCode() {
+        return (int) (_w1 >>> 32);
+    }
+
+    @Override
+    public String toString() {
+        char[] result = new char[2 * LENGTH];
+        hexLong(_w1, result, 0, 8);
+        hexLong(_w2, result, 16, 8);
+        hexLong(_w3 & 0xffffffffL, result, 32, 4);
+        return new String(result);
+    }
+
+    /** Write the low N bytes of V as hex into OUT at OFF. */
+    private static void hexLong(long v, char[] out, int off, int n) {
+        for (int i = 2 * n - 1; i >= 0; i -= 1) {
+            out[off + i] = DIGITS[(int) (v & 0xf)];
+            v >>>= 4;
+        }
+    }
+
+    /** Return the value of the (up to) 16 hex digits of HEX at OFF. */
+    private static long hexLong(String hex, int off) {
+        long v = 0;
+        int end = Math.min(off + 16, hex.length());
+        for (int i = off; i < end; i += 1) {
+            v = (v << 4) | DIGIT_VALUE[hex.charAt(i)];
+        }
+        return v;
+    }
+
+    /** Return the big-endian long in BYTES at OFF. */
+    private static long getLong(byte[] bytes, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i += 1) {
+            v = (v << 8) | (bytes[off + i] & 0xff);
+        }
+        return v;
+    }
+
+    /** Store V big-endian into BYTES at OFF. */
+    private static void putLong(byte[] bytes, int off, long v) {
+        for (int i = 0; i < 8; i += 1) {
+            bytes[off + i] = (byte) (v >>> (56 - 8 * i));
+        }
+    }
+
+    /** Bytes 0-7 and 8-15 of the ID. */
+    private final long _w1, _w2;
+    /** Bytes 16-19 of the ID. */
+    private final int _w3;
+
+}
@@ -0,0 +1,129 @@
+package gitlet;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A set of object IDs kept as one sorted array of 20-byte binary IDs
+ * with a fanout table on the first byte, which gives binary-search
+ * membership tests and resolution of abbreviated IDs in about 20 bytes
+ * per ID.
+ *  @author XiWang */
+
+public class ObjectIdIndex {
+
+    /** Bytes in a binary ID. */
+    private static final int ID_BYTES = ObjectId.LENGTH;
+
+    /** An index of the IDS, which may contain repeats. */
+    ObjectIdIndex(Collection<ObjectId> ids) {
+        ObjectId[] sorted = ids.toArray(new ObjectId[ids.size()]);
+        Arrays.sort(sorted);
+        _ids = new byte[Math.max(16, sorted.length) * ID_BYTES];
+        for (int i = 0; i < sorted.length; i += 1) {
+            if (_count == 0 || !sorted[i].equals(sorted[i - 1])) {
+                sorted[i].copyTo(_ids, _count * ID_BYTES);
+                _count += 1;
+            }
+        }
+        _fanout = new int[256];
+        for (int i = 0; i < _count; i += 1) {
+            _fanout[_ids[i * ID_BYTES] & 0xff] += 1;
+        }
+        for (int b = 1; b < 256; b += 1) {
+            _fanout[b] += _fanout[b - 1];
+        }
+    }
+
+    /** Return the number of IDs. */
+    int size() {
+        return _count;
+    }
+
+    /** Return true if ID is present. */
+    boolean contains(ObjectId id) {
+        if (id == null) {
+            return false;
+        }
+        byte[] key = id.toBytes();
+        int pos = lowerBound(key);
+        return pos < _count && compare(pos, key) == 0;
+    }
+
+    /** Add ID, if it is not already present. */
+    void add(ObjectId id) {
+        byte[] key = id.toBytes();
+        int pos = lowerBound(key);
+        if (pos < _count && compare(pos, key) == 0) {
+            return;
+        }
+        if ((_count + 1) * ID_BYTES > _ids.length) {
+            _ids = Arrays.copyOf(_ids, _ids.length * 2);
+        }
+        System.arraycopy(_ids, pos * ID_BYTES, _ids, (pos + 1) * ID_BYTES,
+                         (_count - pos) * ID_BYTES);
+        System.arraycopy(key, 0, _ids, pos * ID_BYTES, ID_BYTES);
+        _count += 1;
+        for (int b = key[0] & 0xff; b < 256; b += 1) {
+            _fanout[b] += 1;
+        }
+    }
+
+    /** Return the one ID that starts with hex PREFIX.  Throws a
+     *  GitletException if there is none, or more than one. */
+    ObjectId resolve(String prefix) {
+        if (prefix.isEmpty() || prefix.length() > Utils.UID_LENGTH) {
+            throw new GitletException("No commit with that id exists.");
+        }
+        StringBuilder low = new StringBuilder(prefix);
+        while (low.length() < Utils.UID_LENGTH) {
+            low.append('0');
+        }
+        if (!ObjectId.isHex(low.toString())) {
+            throw new GitletException("No commit with that id exists.");
+        }
+        int pos = lowerBound(ObjectId.fromHex(low.toString()).toBytes());
+        if (pos >= _count || !id(pos).startsWith(prefix)) {
+            throw new GitletException("No commit with that id exists.");
+        }
+        if (pos + 1 < _count && id(pos + 1).startsWith(prefix)) {
+            throw new GitletException("Ambiguous commit id prefix.");
+        }
+        return id(pos);
+    }
+
+    /** Return the ID at POS. */
+    private ObjectId id(int pos) {
+        return ObjectId.fromBytes(_ids, pos * ID_BYTES);
+    }
+
+    /** Return the position of the first ID not less than KEY. */
+    private int lowerBound(byte[] key) {
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : _fanout[first - 1], hi = _fanout[first];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Compare the ID at POS with KEY. */
+    private int compare(int pos, byte[] key) {
+        return Arrays.compareUnsigned(_ids, pos * ID_BYTES,
+                                      (pos + 1) * ID_BYTES,
+                                      key, 0, ID_BYTES);
+    }
+
+    /** The IDs, sorted, in the first _count * ID_BYTES bytes. */
+    private byte[] _ids;
+    /** Number of IDs. */
+    private int _count;
+    /** Number of IDs whose first byte is at most each value. */
+    private int[] _fanout;
+
+}
@@ -0,0 +1,85 @@
+package gitlet;
+
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of the sorted index of object IDs.
+ *  @author XiWang */
+public class ObjectIdIndexTest {
+
+    /** IDs that share prefixes of various lengths. */
+    private static final ObjectId A =
+        ObjectId.fromHex("ab12000000000000000000000000000000000001");
+    /** Shares "ab12" with A. */
+    private static final ObjectId B =
+        ObjectId.fromHex("ab12f00000000000000000000000000000000002");
+    /** Shares "ab" with A and B. */
+    private static final ObjectId C =
+        ObjectId.fromHex("ab90000000000000000000000000000000000003");
+    /** The last possible ID. */
+    private static final ObjectId D =
+        ObjectId.fromHex("ffffffffffffffffffffffffffffffffffffffff");
+
+    /** A prefix, of odd or even length, that only one ID starts with
+     *  resolves to that ID, as does the whole ID. */
+    @Test
+    public void resolvesUniquePrefix() {
+        ObjectIdIndex index = new ObjectIdIndex(List.of(C, A, D, B));
+        assertEquals(A, index.resolve("ab120"));
+        assertEquals(B, index.resolve("ab12f"));
+        assertEquals(C, index.resolve("ab9"));
+        assertEquals(D, index.resolve("f"));
+        assertEquals(A, index.resolve(A.toString()));
+    }
+
+    /** A prefix more than one ID starts with is ambiguous. */
+    @Test
+    public void rejectsAmbiguousPrefix() {
+        ObjectIdIndex index = new ObjectIdIndex(List.of(A, B, C, D));
+        assertResolveFails(index, "ab", "Ambiguous commit id prefix.");
+        assertResolveFails(index, "ab12", "Ambiguous commit id prefix.");
+    }
+
+    /** A prefix no ID starts with, or that is not hex, or is empty or
+     *  too long, names no commit. */
+    @Test
+    public void rejectsUnknownPrefix() {
+        ObjectIdIndex index = new ObjectIdIndex(List.of(A, B, C, D));
+        String none = "No commit with that id exists.";
+        assertResolveFails(index, "ab13", none);
+        assertResolveFails(index, "00", none);
+        assertResolveFails(index, "fffe", none);
+        assertResolveFails(index, "xyz", none);
+        assertResolveFails(index, "", none);
+        assertResolveFails(index, D + "0", none);
+        assertResolveFails(new ObjectIdIndex(List.of()), "a", none);
+    }
+
+    /** Repeated IDs are kept once, and added IDs are found and can
+     *  make a prefix ambiguous. */
+    @Test
+    public void addsAndDeduplicates() {
+        ObjectIdIndex index = new ObjectIdIndex(List.of(A, A, C));
+        assertEquals(2, index.size());
+        assertEquals(A, index.resolve("ab1"));
+        assertFalse(index.contains(B));
+        index.add(B);
+        index.add(B);
+        assertEquals(3, index.size());
+        assertTrue(index.contains(B));
+        assertResolveFails(index, "ab1", "Ambiguous commit id prefix.");
+    }
+
+    /** Assert that resolving PREFIX in INDEX fails with MESSAGE. */
+    private static void assertResolveFails(ObjectIdIndex index,
+                                           String prefix, String message) {
+        try {
+            index.resolve(prefix);
+            fail("resolved " + prefix);
+        } catch (GitletException excp) {
+            assertEquals(message, excp.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,1201 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * The blobs, trees and commits of a repository.  A new object is kept in its
+ * own loose file, objects/ab/cdef..., named by the hash of its contents
+ * and split on the first two hex digits so that no one directory grows
+ * too large.  A loose file holds a type byte followed by the deflated
+ * contents.  Repacking moves all objects into pack files under
+ * objects/pack (see Pack).  Objects written by older versions, raw and
+ * directly in the repository directory, are still read.
+ *
+ * A blob of at least gitlet.chunkThreshold bytes (8 MB by default) is
+ * split into content-defined chunks (see Chunker), each stored as a blob
+ * of its own.  The blob itself is then stored as a manifest listing the
+ * chunks, under the hash of the whole file as before, so a large file
+ * that changes a little shares most of its chunks with its previous
+ * version.  Reading the blob reads its chunks in turn.
+ *  @author XiWang */
+
+public class ObjectStore {
+
+    /** Type byte of a blob. */
+    static final byte BLOB = 1;
+    /** Type byte of a commit. */
+    static final byte COMMIT = 2;
+    /** Type byte of a blob stored as a list of chunks: for each, its ID
+     *  and its length as a four-byte integer. */
+    static final byte MANIFEST = 3;
+    /** Type byte of a tree (see Tree). */
+    static final byte TREE = 4;
+
+    /** Smallest file stored in chunks. */
+    static final long CHUNK_THRESHOLD =
+        Long.getLong("gitlet.chunkThreshold", 8L << 20);
+    /** Direct buffers, for input and output, that each thread inflates
+     *  objects into files with. */
+    private static final ThreadLocal<ByteBuffer[]> BUFFERS =
+        ThreadLocal.withInitial(() -> new ByteBuffer[] {
+                ByteBuffer.allocateDirect(Blob.BUFFER_SIZE),
+                ByteBuffer.allocateDirect(Blob.BUFFER_SIZE)
+            });
+    /** Bytes per chunk in a manifest. */
+    private static final int MANIFEST_ENTRY_BYTES = ObjectId.LENGTH + 4;
+
+    /** Size past which a pack being written is finished and a new one
+     *  started, so that each can be mapped whole. */
+    static final long MAX_PACK_BYTES = 1L << 30;
+    /** Longest chain of deltas written, bounding the work of reading
+     *  the last object in one. */
+    static final int MAX_DELTA_DEPTH = 16;
+    /** Largest object stored as, or used as the base of, a delta. */
+    static final int MAX_DELTA_BYTES = 16 << 20;
+
+    /** The objects kept under the repository directory OBJECTDIR. */
+    ObjectStore(File objectDir) {
+        _legacyDir = objectDir;
+        _dir = Utils.join(objectDir, "objects");
+        _packDir = Utils.join(_dir, "pack");
+    }
+
+    /** Return the file object ID is, or would be, stored in. */
+    File file(ObjectId id) {
+        String hex = id.toString();
+        return Utils.join(_dir, hex.substring(0, 2), hex.substring(2));
+    }
+
+    /** Return true if object ID is stored. */
+    boolean contains(ObjectId id) {
+        return findPacked(id) != null || file(id).isFile()
+            || legacyFile(id).isFile();
+    }
+
+    /** Return the contents of object ID. */
+    byte[] read(ObjectId id) {
+        try (InputStream in = open(id)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /** Return a stream of the contents of object ID, reading through
+     *  its chunks if it is stored in chunks. */
+    InputStream open(ObjectId id) throws IOException {
+        byte[] type = new byte[1];
+        InputStream in = openRaw(id, type);
+        if (type[0] != MANIFEST) {
+            return in;
+        }
+        List<ObjectId> chunks;
+        try (in) {
+            chunks = chunks(in.readAllBytes());
+        }
+        Iterator<ObjectId> next = chunks.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return next.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return openRaw(next.next(), new byte[1]);
+                } catch (IOException excp) {
+                    throw new GitletException(excp.getMessage());
+                }
+            }
+        });
+    }
+
+    /** Return the type of object ID. */
+    byte type(ObjectId id) {
+        byte[] type = new byte[1];
+        try {
+            Pack pack = findPacked(id);
+            if (pack != null) {
+                return pack.type(pack.find(id));
+            }
+            File file = file(id);
+            if (file.isFile()) {
+                try (InputStream in = new FileInputStream(file)) {
+                    int first = in.read();
+                    if (first < 0) {
+                        throw new GitletException("Corrupt object " + id
+                                                  + ".");
+                    }
+                    return (byte) first;
+                }
+            }
+            openRaw(id, type).close();
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        return type[0];
+    }
+
+    /** Return the stored contents of object ID, which for a blob stored
+     *  in chunks is its manifest. */
+    byte[] readRaw(ObjectId id) {
+        try (InputStream in = openRaw(id, new byte[1])) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /** Return the chunks listed in MANIFEST. */
+    static List<ObjectId> chunks(byte[] manifest) {
+        List<ObjectId> result = new ArrayList<ObjectId>();
+        for (int off = 0; off + MANIFEST_ENTRY_BYTES <= manifest.length;
+             off += MANIFEST_ENTRY_BYTES) {
+            result.add(ObjectId.fromBytes(manifest, off));
+        }
+        return result;
+    }
+
+    /** Return a stream of the stored contents of object ID, and set
+     *  TYPE[0] to its type. */
+    private InputStream openRaw(ObjectId id, byte[] type) throws IOException {
+        Pack pack = findPacked(id);
+        if (pack != null) {
+            type[0] = pack.type(pack.find(id));
+            return pack.open(pack.find(id));
+        }
+        File file = file(id);
+        if (!file.isFile()) {
+            File legacy = legacyFile(id);
+            if (legacy.isFile()) {
+                type[0] = BLOB;
+                return new FileInputStream(legacy);
+            }
+            _packs = null;
+            pack = findPacked(id);
+            if (pack != null) {
+                type[0] = pack.type(pack.find(id));
+                return pack.open(pack.find(id));
+            }
+            throw new GitletException("Missing object " + id + ".");
+        }
+        InputStream in = new BufferedInputStream(new FileInputStream(file),
+                                                 Blob.BUFFER_SIZE);
+        int first = in.read();
+        if (first < 0) {
+            in.close();
+            throw new GitletException("Corrupt object " + id + ".");
+        }
+        type[0] = (byte) first;
+        return new InflaterInputStream(in);
+    }
+
+    /** Write the contents of object ID to FILE.  The contents never pass
+     *  through the heap: compressed objects are inflated from the pack
+     *  mapping or the object file straight into a direct buffer that is
+     *  written to FILE, and uncompressed ones are copied by the file
+     *  system.  Only deltas, which must be applied to their base, are
+     *  built in memory. */
+    void copyTo(ObjectId id, File file) {
+        try (FileChannel out = FileChannel.open(
+                 file.toPath(), StandardOpenOption.WRITE,
+                 StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            copyTo(id, out);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /** Append the contents of object ID to OUT. */
+    private void copyTo(ObjectId id, FileChannel out) throws IOException {
+        Pack pack = findPacked(id);
+        if (pack != null) {
+            long offset = pack.find(id);
+            if (pack.type(offset) == MANIFEST) {
+                copyChunksTo(pack.read(offset), out);
+            } else if (pack.isDelta(offset)) {
+                writeFully(out, ByteBuffer.wrap(pack.read(offset)));
+            } else {
+                inflateTo(pack.data(offset), null, out);
+            }
+            return;
+        }
+        File loose = file(id);
+        if (loose.isFile()) {
+            try (FileChannel in = FileChannel.open(loose.toPath())) {
+                ByteBuffer input = BUFFERS.get()[0];
+                input.clear();
+                in.read(input);
+                input.flip();
+                if (!input.hasRemaining()) {
+                    throw new GitletException("Corrupt object " + id + ".");
+                }
+                if (input.get() == MANIFEST) {
+                    copyChunksTo(readRaw(id), out);
+                } else {
+                    inflateTo(input, in, out);
+                }
+            }
+            return;
+        }
+        File legacy = legacyFile(id);
+        if (legacy.isFile()) {
+            try (FileChannel in = FileChannel.open(legacy.toPath())) {
+                long size = in.size();
+                for (long done = 0; done < size; ) {
+                    done += in.transferTo(done, size - done, out);
+                }
+            }
+            return;
+        }
+        try (InputStream in = open(id)) {
+            byte[] buffer = new byte[Blob.BUFFER_SIZE];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                writeFully(out, ByteBuffer.wrap(buffer, 0, n));
+            }
+        }
+    }
+
+    /** Append the contents of the chunks listed in MANIFEST to OUT. */
+    private void copyChunksTo(byte[] manifest, FileChannel out)
+        throws IOException {
+        for (ObjectId chunk : chunks(manifest)) {
+            copyTo(chunk, out);
+        }
+    }
+
+    /** Inflate the deflated data in INPUT, followed by the rest of IN
+     *  if IN is not null, and append the result to OUT. */
+    private static void inflateTo(ByteBuffer input, FileChannel in,
+                                  FileChannel out) throws IOException {
+        Inflater inflater = new Inflater();
+        ByteBuffer output = BUFFERS.get()[1];
+        try {
+            inflater.setInput(input);
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    input.clear();
+                    if (in == null || in.read(input) < 0) {
+                        throw new IOException("Truncated object.");
+                    }
+                    input.flip();
+                    inflater.setInput(input);
+                } else if (inflater.needsDictionary()) {
+                    throw new IOException("Corrupt object.");
+                }
+                output.clear();
+                inflater.inflate(output);
+                output.flip();
+                writeFully(out, output);
+            }
+        } catch (DataFormatException excp) {
+            throw new IOException("Corrupt object.");
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Write all of DATA to OUT. */
+    private static void writeFully(FileChannel out, ByteBuffer data)
+        throws IOException {
+        while (data.hasRemaining()) {
+            out.write(data);
+        }
+    }
+
+    /** Store CONTENTS as object ID, of type TYPE, if it is not stored
+     *  already. */
+    void write(ObjectId id, byte type, byte[] contents) {
+        if (contains(id)) {
+            return;
+        }
+        File tmp = tempFile();
+        try {
+            try (OutputStream out = deflating(tmp, type)) {
+                out.write(contents);
+            }
+            install(tmp, id);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /** Store the contents of FILE as a blob and return its ID.  FILE is
+     *  read once, hashed as it is compressed to a temporary file, and the
+     *  temporary file is then renamed into place, or dropped if that blob
+     *  is already stored. */
+    ObjectId writeBlob(File file) {
+        if (file.length() >= CHUNK_THRESHOLD) {
+            return writeChunked(file);
+        }
+        MessageDigest md = Blob.sha1();
+        byte[] buffer = new byte[Blob.BUFFER_SIZE];
+        File tmp = tempFile();
+        try {
+            try (InputStream in = new FileInputStream(file);
+                 OutputStream out = deflating(tmp, BLOB)) {
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                    md.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                }
+            }
+            ObjectId id = ObjectId.fromBytes(md.digest());
+            if (!contains(id)) {
+                install(tmp, id);
+            }
+            return id;
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /** Store the contents of FILE, which is read once, in chunks, and
+     *  return its ID.  Only chunks not already stored are written. */
+    private ObjectId writeChunked(File file) {
+        MessageDigest whole = Blob.sha1();
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        int total = 0, fresh = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            Chunker chunker = new Chunker(in);
+            for (byte[] chunk = chunker.next(); chunk != null;
+                 chunk = chunker.next()) {
+                whole.update(chunk);
+                MessageDigest md = Blob.sha1();
+                md.update(chunk);
+                ObjectId id = ObjectId.fromBytes(md.digest());
+                if (!contains(id)) {
+                    write(id, BLOB, chunk);
+                    fresh += 1;
+                }
+                total += 1;
+                manifest.write(id.toBytes());
+                manifest.write(ByteBuffer.allocate(4).putInt(chunk.length)
+                               .array());
+            }
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        ObjectId id = ObjectId.fromBytes(whole.digest());
+        write(id, MANIFEST, manifest.toByteArray());
+        Utils.stats("%s: %d chunks, %d new", file.getName(), total, fresh);
+        return id;
+    }
+
+    /** Copy OBJECTS, each mapped to its type and listed after the objects
+     *  they refer to, from SOURCE into this store on JOBS threads, and
+     *  return the number of bytes copied.  A stored tree is taken to be
+     *  complete (see Tree.missing), so no object may be stored before
+     *  those it refers to, even if the copy is cut short.  The copy is
+     *  therefore done in waves, each finished before the next starts:
+     *  the blobs, then the trees a level at a time from the bottom up,
+     *  and then the commits, one at a time in order. */
+    long copyFrom(ObjectStore source, Map<ObjectId, Byte> objects,
+                  int jobs) {
+        List<ObjectId> blobs = new ArrayList<ObjectId>();
+        List<List<ObjectId>> trees = new ArrayList<List<ObjectId>>();
+        List<ObjectId> commits = new ArrayList<ObjectId>();
+        Map<ObjectId, Integer> heights = new HashMap<ObjectId, Integer>();
+        for (Map.Entry<ObjectId, Byte> e : objects.entrySet()) {
+            ObjectId id = e.getKey();
+            if (e.getValue() == TREE) {
+                int height = 0;
+                for (ObjectId dir : Tree.read(source, id).dirs().values()) {
+                    Integer below = heights.get(dir);
+                    if (below != null) {
+                        height = Math.max(height, below + 1);
+                    }
+                }
+                heights.put(id, height);
+                while (trees.size() <= height) {
+                    trees.add(new ArrayList<ObjectId>());
+                }
+                trees.get(height).add(id);
+            } else if (e.getValue() == COMMIT) {
+                commits.add(id);
+            } else {
+                blobs.add(id);
+            }
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        try {
+            long bytes = copyWave(pool, source, blobs, BLOB);
+            for (List<ObjectId> level : trees) {
+                bytes += copyWave(pool, source, level, TREE);
+            }
+            for (ObjectId commit : commits) {
+                bytes += copyFrom(source, commit, COMMIT);
+            }
+            return bytes;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Copy OBJECTS, all of type TYPE, from SOURCE into this store on
+     *  POOL, and return the number of bytes copied once all are done. */
+    private long copyWave(ExecutorService pool, ObjectStore source,
+                          List<ObjectId> objects, byte type) {
+        AtomicLong bytes = new AtomicLong();
+        List<Future<?>> copies = new ArrayList<Future<?>>();
+        for (ObjectId id : objects) {
+            copies.add(pool.submit(() -> {
+                bytes.addAndGet(copyFrom(source, id, type));
+            }));
+        }
+        try {
+            for (Future<?> copy : copies) {
+                copy.get();
+            }
+        } catch (ExecutionException excp) {
+            for (Future<?> copy : copies) {
+                copy.cancel(true);
+            }
+            if (excp.getCause() instanceof GitletException) {
+                throw (GitletException) excp.getCause();
+            }
+            throw new GitletException(excp.getCause().getMessage());
+        } catch (InterruptedException excp) {
+            throw new GitletException("Interrupted.");
+        }
+        return bytes.get();
+    }
+
+    /** Copy object ID, of type TYPE, from SOURCE into this store, if it
+     *  is not here already, and return the number of bytes copied.
+     *  Objects are copied still compressed, and of a blob stored in
+     *  chunks, only the chunks not here already are copied.  A loose
+     *  object is hard-linked where both stores are on one file system,
+     *  as objects are never changed once written, and otherwise copied
+     *  with FileChannel.transferTo. */
+    long copyFrom(ObjectStore source, ObjectId id, byte type) {
+        if (contains(id)) {
+            return 0;
+        }
+        long bytes = 0;
+        if (type == BLOB && source.type(id) == MANIFEST) {
+            for (ObjectId chunk : chunks(source.readRaw(id))) {
+                bytes += copyFrom(source, chunk, BLOB);
+            }
+            type = MANIFEST;
+        }
+        Pack pack = source.findPacked(id);
+        File loose = pack == null ? source.looseFile(id) : null;
+        if (pack == null && loose == null
+            || pack != null && pack.isDelta(pack.find(id))) {
+            byte[] contents = source.readRaw(id);
+            write(id, type, contents);
+            return bytes + contents.length;
+        }
+        if (loose != null && _linkable && link(loose, id)) {
+            return bytes + loose.length();
+        }
+        File tmp = tempFile();
+        try {
+            try (FileChannel out = FileChannel.open(
+                     tmp.toPath(), StandardOpenOption.WRITE)) {
+                if (pack != null) {
+                    long offset = pack.find(id);
+                    out.write(ByteBuffer.wrap(new byte[] {pack.type(offset)}));
+                    ByteBuffer data = pack.data(offset);
+                    bytes += 1 + data.remaining();
+                    while (data.hasRemaining()) {
+                        out.write(data);
+                    }
+                } else {
+                    try (FileChannel in = FileChannel.open(loose.toPath())) {
+                        long length = in.size();
+                        for (long done = 0; done < length; ) {
+                            done += in.transferTo(done, length - done, out);
+                        }
+                        bytes += length;
+                    }
+                }
+            }
+            install(tmp, id);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        } finally {
+            tmp.delete();
+        }
+        return bytes;
+    }
+
+    /** Make object ID here a hard link to LOOSE, and return true, or
+     *  return false if links cannot be made, and make no more. */
+    private boolean link(File loose, ObjectId id) {
+        File target = file(id);
+        target.getParentFile().mkdirs();
+        try {
+            Files.createLink(target.toPath(), loose.toPath());
+        } catch (FileAlreadyExistsException excp) {
+            return true;
+        } catch (IOException | UnsupportedOperationException excp) {
+            _linkable = false;
+            return false;
+        }
+        return true;
+    }
+
+    /** Copy OBJECTS, each mapped to its type, from SOURCE into this store
+     *  as new packs, each closed once it reaches MAX_PACK_BYTES, and
+     *  return the number of bytes written.  Objects are copied still
+     *  compressed, except those SOURCE holds as deltas, and of a blob
+     *  stored in chunks, only the chunks not here already are copied.
+     *  Objects here already are skipped. */
+    long receive(ObjectStore source, Map<ObjectId, Byte> objects) {
+        List<Pack> packs = source.packs();
+        Set<ObjectId> added = new HashSet<ObjectId>();
+        long length = 0;
+        Pack.Writer writer = null;
+        try {
+            for (Map.Entry<ObjectId, Byte> e : objects.entrySet()) {
+                ObjectId id = e.getKey();
+                List<ObjectId> copy = new ArrayList<ObjectId>();
+                if (e.getValue() == BLOB && source.type(id) == MANIFEST) {
+                    copy.addAll(chunks(source.readRaw(id)));
+                }
+                copy.add(id);
+                for (ObjectId c : copy) {
+                    if (contains(c) || !added.add(c)) {
+                        continue;
+                    }
+                    if (writer == null) {
+                        writer = new Pack.Writer(_packDir);
+                    }
+                    source.addTo(writer, c, c.equals(id) ? e.getValue() : BLOB,
+                                 source.looseFile(c), packs);
+                    if (writer.length() >= MAX_PACK_BYTES) {
+                        length += writer.length();
+                        writer.finish();
+                        writer = null;
+                        _packs = null;
+                    }
+                }
+            }
+            if (writer != null) {
+                length += writer.length();
+                writer.finish();
+                writer = null;
+            }
+            return length;
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        } finally {
+            if (writer != null) {
+                writer.abandon();
+            }
+            _packs = null;
+        }
+    }
+
+    /** Write OBJECTS, each mapped to its type, to OUT as a pack stream,
+     *  and return the number of bytes of object data written.  Each entry
+     *  is a nonzero byte, the object's ID, its type, the length of its
+     *  deflated contents and those contents, and a zero byte ends the
+     *  stream.  Objects are sent still compressed, except those held as
+     *  deltas, and a blob stored in chunks is preceded by its chunks. */
+    long sendPack(Map<ObjectId, Byte> objects, DataOutputStream out)
+        throws IOException {
+        List<Pack> packs = packs();
+        Set<ObjectId> sent = new HashSet<ObjectId>();
+        long bytes = 0;
+        for (Map.Entry<ObjectId, Byte> e : objects.entrySet()) {
+            ObjectId id = e.getKey();
+            if (e.getValue() == BLOB && type(id) == MANIFEST) {
+                for (ObjectId chunk : chunks(readRaw(id))) {
+                    if (sent.add(chunk)) {
+                        bytes += sendEntry(chunk, BLOB, packs, out);
+                    }
+                }
+            }
+            if (sent.add(id)) {
+                bytes += sendEntry(id, e.getValue(), packs, out);
+            }
+        }
+        out.writeByte(0);
+        return bytes;
+    }
+
+    /** Read a pack stream written by sendPack from IN into new packs,
+     *  skipping objects here already, and return the number of bytes of
+     *  object data read.  Each object is hashed again as it is written,
+     *  and the whole stream is refused if any does not match its ID. */
+    long receivePack(DataInputStream in) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(in);
+        Set<ObjectId> added = new HashSet<ObjectId>();
+        byte[] id = new byte[ObjectId.LENGTH];
+        long bytes = 0;
+        Pack.Writer writer = null;
+        try {
+            while (in.readByte() != 0) {
+                in.readFully(id);
+                ObjectId object = ObjectId.fromBytes(id);
+                byte type = in.readByte();
+                long length = in.readLong();
+                if (length < 0 || type < BLOB || type > TREE) {
+                    throw new GitletException("Malformed pack stream.");
+                }
+                bytes += length;
+                if (contains(object) || !added.add(object)) {
+                    in.skipNBytes(length);
+                    continue;
+                }
+                if (writer == null) {
+                    writer = new Pack.Writer(_packDir);
+                }
+                writer.add(object, type, source, length);
+                if (!matches(writer, object, type)) {
+                    throw new GitletException("Corrupt object " + object
+                                              + " in pack stream.");
+                }
+                if (writer.length() >= MAX_PACK_BYTES) {
+                    writer.finish();
+                    writer = null;
+                    _packs = null;
+                }
+            }
+            if (writer != null) {
+                writer.finish();
+                writer = null;
+            }
+        } finally {
+            if (writer != null) {
+                writer.abandon();
+            }
+            _packs = null;
+        }
+        return bytes;
+    }
+
+    /** Return true if object ID of type TYPE, just added to WRITER,
+     *  matches its ID.  The chunks of a manifest must be here or in
+     *  WRITER. */
+    private boolean matches(Pack.Writer writer, ObjectId id, byte type)
+        throws IOException {
+        try {
+            if (type == COMMIT) {
+                return isCommit(writer, id);
+            }
+            MessageDigest md = Blob.sha1();
+            if (type != MANIFEST) {
+                try (InputStream in = writer.open(id)) {
+                    digest(in, md);
+                }
+                return id.equals(ObjectId.fromBytes(md.digest()));
+            }
+            byte[] manifest;
+            try (InputStream in = writer.open(id)) {
+                manifest = in.readAllBytes();
+            }
+            for (ObjectId chunk : chunks(manifest)) {
+                InputStream in = writer.open(chunk);
+                if (in == null && contains(chunk)) {
+                    in = open(chunk);
+                }
+                if (in == null) {
+                    return false;
+                }
+                try (InputStream chunkIn = in) {
+                    digest(chunkIn, md);
+                }
+            }
+            return id.equals(ObjectId.fromBytes(md.digest()));
+        } catch (ZipException | EOFException excp) {
+            return false;
+        }
+    }
+
+    /** Return true if object ID in WRITER is a commit in the binary
+     *  form whose hash is ID.  Serialized commits, as older versions
+     *  wrote, are refused: they would have to be deserialized to be
+     *  checked, and their stored IDs are not hashes of their contents,
+     *  so nothing a peer sends in that form can be trusted. */
+    private static boolean isCommit(Pack.Writer writer, ObjectId id)
+        throws IOException {
+        try (InputStream in = writer.open(id)) {
+            byte[] contents = in.readAllBytes();
+            if (Commit.isSerialized(contents)) {
+                return false;
+            }
+            return id.equals(Commit.fromBytes(contents).getHash());
+        } catch (GitletException excp) {
+            return false;
+        }
+    }
+
+    /** Add the rest of IN to MD. */
+    private static void digest(InputStream in, MessageDigest md)
+        throws IOException {
+        byte[] buffer = new byte[Blob.BUFFER_SIZE];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            md.update(buffer, 0, n);
+        }
+    }
+
+    /** Write object ID, as TYPE if its type is not recorded with it, to
+     *  OUT as an entry of a pack stream, taking it from one of PACKS, its
+     *  loose file or the legacy layout, and return the length of its
+     *  data. */
+    private long sendEntry(ObjectId id, byte type, List<Pack> packs,
+                           DataOutputStream out) throws IOException {
+        out.writeByte(1);
+        out.write(id.toBytes());
+        for (Pack pack : packs) {
+            long offset = pack.find(id);
+            if (offset >= 0 && !pack.isDelta(offset)) {
+                ByteBuffer data = pack.data(offset);
+                long length = data.remaining();
+                out.writeByte(pack.type(offset));
+                out.writeLong(length);
+                WritableByteChannel target = Channels.newChannel(out);
+                while (data.hasRemaining()) {
+                    target.write(data);
+                }
+                return length;
+            }
+        }
+        File loose = looseFile(id);
+        if (loose != null) {
+            try (FileChannel in = FileChannel.open(loose.toPath())) {
+                ByteBuffer first = ByteBuffer.allocate(1);
+                in.read(first, 0);
+                long length = in.size() - 1;
+                out.writeByte(first.get(0));
+                out.writeLong(length);
+                WritableByteChannel target = Channels.newChannel(out);
+                for (long done = 0; done < length; ) {
+                    done += in.transferTo(1 + done, length - done, target);
+                }
+                return length;
+            }
+        }
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        byte[] actual = new byte[1];
+        try (InputStream in = openRaw(id, actual);
+             OutputStream d = new DeflaterOutputStream(deflated)) {
+            in.transferTo(d);
+        }
+        out.writeByte(findPacked(id) != null ? actual[0] : type);
+        out.writeLong(deflated.size());
+        deflated.writeTo(out);
+        return deflated.size();
+    }
+
+    /** Move every object into new packs, and remove the loose objects
+     *  and old packs they came from.  The objects in ORDER are written
+     *  first, in that order and with the types it gives, so that objects
+     *  read together lie together; any others follow.  An object with an
+     *  entry in BASES is stored as a delta against that base, if the base
+     *  was written earlier to the same pack, the delta chain would not
+     *  grow too long, and the delta is less than half the size of the
+     *  object.  Returns the number of objects packed. */
+    int repack(Map<ObjectId, Byte> order, Map<ObjectId, ObjectId> bases) {
+        Map<ObjectId, File> loose = looseObjects();
+        Map<ObjectId, File> legacy = legacyObjects();
+        List<Pack> oldPacks = packs();
+        LinkedHashSet<ObjectId> all = new LinkedHashSet<ObjectId>();
+        for (ObjectId id : order.keySet()) {
+            if (contains(id)) {
+                all.add(id);
+            }
+        }
+        all.addAll(loose.keySet());
+        all.addAll(legacy.keySet());
+        for (Pack pack : oldPacks) {
+            for (int k = 0; k < pack.size(); k += 1) {
+                all.add(pack.id(k));
+            }
+        }
+        List<File> written = new ArrayList<File>();
+        Map<ObjectId, Integer> depth = new HashMap<ObjectId, Integer>();
+        int deltas = 0;
+        Pack.Writer writer = null;
+        try {
+            for (ObjectId id : all) {
+                if (writer == null) {
+                    writer = new Pack.Writer(_packDir);
+                    depth.clear();
+                }
+                ObjectId base = bases.get(id);
+                Integer baseDepth = base == null ? null : depth.get(base);
+                if (baseDepth != null && baseDepth < MAX_DELTA_DEPTH
+                    && addDelta(writer, id, base)) {
+                    depth.put(id, baseDepth + 1);
+                    deltas += 1;
+                } else {
+                    addTo(writer, id, order.getOrDefault(id, BLOB),
+                          loose.get(id), oldPacks);
+                    depth.put(id, 0);
+                }
+                if (writer.length() >= MAX_PACK_BYTES) {
+                    written.add(writer.finish());
+                    writer = null;
+                }
+            }
+            if (writer != null) {
+                written.add(writer.finish());
+                writer = null;
+            }
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        } finally {
+            if (writer != null) {
+                writer.abandon();
+            }
+        }
+        _packs = null;
+        for (File file : loose.values()) {
+            file.delete();
+            file.getParentFile().delete();
+        }
+        for (File file : legacy.values()) {
+            file.delete();
+        }
+        for (Pack pack : oldPacks) {
+            if (!written.contains(pack.file())) {
+                Pack.indexFile(pack.file()).delete();
+                pack.file().delete();
+            }
+        }
+        Utils.stats("repack: %d of %d objects stored as deltas", deltas,
+                    all.size());
+        return all.size();
+    }
+
+    /** Return the IDs of all stored objects, wherever they are kept. */
+    Set<ObjectId> ids() {
+        LinkedHashSet<ObjectId> result = new LinkedHashSet<ObjectId>();
+        result.addAll(looseObjects().keySet());
+        result.addAll(legacyObjects().keySet());
+        _packs = null;
+        for (Pack pack : packs()) {
+            for (int k = 0; k < pack.size(); k += 1) {
+                result.add(pack.id(k));
+            }
+        }
+        return result;
+    }
+
+    /** Remove every object not in LIVE that was stored before CUTOFF,
+     *  in milliseconds since the epoch, add the IDs of those removed to
+     *  REMOVED, and return the number of bytes freed.  A pack holding
+     *  such objects is rewritten without them, unless it was itself
+     *  written after CUTOFF.  Objects stored since CUTOFF are kept, as a
+     *  command running alongside may be about to refer to them. */
+    long prune(Set<ObjectId> live, long cutoff, Set<ObjectId> removed) {
+        long freed = 0;
+        for (Map.Entry<ObjectId, File> e : looseObjects().entrySet()) {
+            freed += sweep(e.getKey(), e.getValue(), live, cutoff, removed);
+            e.getValue().getParentFile().delete();
+        }
+        for (Map.Entry<ObjectId, File> e : legacyObjects().entrySet()) {
+            freed += sweep(e.getKey(), e.getValue(), live, cutoff, removed);
+        }
+        List<Pack> packs = packs();
+        _packs = null;
+        for (Pack pack : packs) {
+            if (pack.file().lastModified() < cutoff) {
+                freed += prune(pack, live, removed);
+            }
+        }
+        return freed;
+    }
+
+    /** Delete FILE, which holds object ID, unless ID is in LIVE or FILE
+     *  changed after CUTOFF.  If deleted, add ID to REMOVED and return
+     *  its length; otherwise return 0. */
+    private static long sweep(ObjectId id, File file, Set<ObjectId> live,
+                              long cutoff, Set<ObjectId> removed) {
+        if (live.contains(id) || file.lastModified() >= cutoff) {
+            return 0;
+        }
+        long length = file.length();
+        if (!file.delete()) {
+            return 0;
+        }
+        removed.add(id);
+        return length;
+    }
+
+    /** Rewrite PACK without the objects not in LIVE, adding their IDs to
+     *  REMOVED, and return the number of bytes freed. */
+    private long prune(Pack pack, Set<ObjectId> live, Set<ObjectId> removed) {
+        List<ObjectId> dead = new ArrayList<ObjectId>();
+        for (int k = 0; k < pack.size(); k += 1) {
+            if (!live.contains(pack.id(k))) {
+                dead.add(pack.id(k));
+            }
+        }
+        if (dead.isEmpty()) {
+            return 0;
+        }
+        File index = Pack.indexFile(pack.file());
+        long before = pack.file().length() + index.length();
+        long after = 0;
+        if (dead.size() < pack.size()) {
+            Pack.Writer writer = null;
+            try {
+                writer = new Pack.Writer(_packDir);
+                for (int k = 0; k < pack.size(); k += 1) {
+                    ObjectId id = pack.id(k);
+                    if (live.contains(id)) {
+                        addTo(writer, id, BLOB, null, List.of(pack));
+                    }
+                }
+                File written = writer.finish();
+                writer = null;
+                if (written.equals(pack.file())) {
+                    return 0;
+                }
+                after = written.length() + Pack.indexFile(written).length();
+            } catch (IOException excp) {
+                throw new GitletException(excp.getMessage());
+            } finally {
+                if (writer != null) {
+                    writer.abandon();
+                }
+            }
+        }
+        index.delete();
+        pack.file().delete();
+        removed.addAll(dead);
+        return before - after;
+    }
+
+    /** Add object ID to WRITER as a delta against BASE, if that is small
+     *  enough to be worth it, and return true if it was. */
+    private boolean addDelta(Pack.Writer writer, ObjectId id, ObjectId base)
+        throws IOException {
+        if (type(id) != type(base)) {
+            return false;
+        }
+        byte[] target = readAtMost(id, MAX_DELTA_BYTES);
+        if (target == null) {
+            return false;
+        }
+        byte[] source = readAtMost(base, MAX_DELTA_BYTES);
+        if (source == null) {
+            return false;
+        }
+        byte[] delta = Delta.compute(source, target);
+        if (delta.length >= target.length / 2) {
+            return false;
+        }
+        writer.addDelta(id, base, delta);
+        return true;
+    }
+
+    /** Return the stored contents of object ID, or null if they are
+     *  longer than LIMIT bytes. */
+    private byte[] readAtMost(ObjectId id, int limit) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[Blob.BUFFER_SIZE];
+        try (InputStream in = openRaw(id, new byte[1])) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                result.write(buffer, 0, n);
+                if (result.size() > limit) {
+                    return null;
+                }
+            }
+        }
+        return result.toByteArray();
+    }
+
+    /** Add object ID to WRITER, as TYPE if its type is not recorded with
+     *  it, taking it from LOOSE if that is not null, or else from one of
+     *  PACKS or the legacy layout. */
+    private void addTo(Pack.Writer writer, ObjectId id, byte type,
+                       File loose, List<Pack> packs) throws IOException {
+        if (loose != null) {
+            try (FileChannel in = FileChannel.open(loose.toPath())) {
+                ByteBuffer first = ByteBuffer.allocate(1);
+                in.read(first, 0);
+                writer.add(id, first.get(0), in, 1, in.size() - 1);
+            }
+            return;
+        }
+        for (Pack pack : packs) {
+            long offset = pack.find(id);
+            if (offset >= 0 && pack.isDelta(offset)) {
+                try (InputStream in = pack.open(offset)) {
+                    writer.add(id, pack.type(offset), in);
+                }
+                return;
+            } else if (offset >= 0) {
+                writer.add(id, pack.type(offset), pack.data(offset));
+                return;
+            }
+        }
+        try (InputStream in = new FileInputStream(legacyFile(id))) {
+            writer.add(id, type, in);
+        }
+    }
+
+    /** Return the loose objects and their files. */
+    private Map<ObjectId, File> looseObjects() {
+        Map<ObjectId, File> result = new HashMap<ObjectId, File>();
+        File[] dirs = _dir.listFiles();
+        if (dirs == null) {
+            return result;
+        }
+        for (File dir : dirs) {
+            String[] names = dir.list();
+            if (dir.getName().length() != 2 || names == null) {
+                continue;
+            }
+            for (String name : names) {
+                String hex = dir.getName() + name;
+                if (ObjectId.isHex(hex)) {
+                    result.put(ObjectId.fromHex(hex), new File(dir, name));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the objects kept by older versions, and their files. */
+    private Map<ObjectId, File> legacyObjects() {
+        Map<ObjectId, File> result = new HashMap<ObjectId, File>();
+        List<String> names = Utils.plainFilenamesIn(_legacyDir);
+        if (names != null) {
+            for (String name : names) {
+                if (ObjectId.isHex(name)) {
+                    result.put(ObjectId.fromHex(name),
+                               new File(_legacyDir, name));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the pack holding object ID, or null if none does. */
+    private Pack findPacked(ObjectId id) {
+        for (Pack pack : packs()) {
+            if (pack.find(id) >= 0) {
+                return pack;
+            }
+        }
+        return null;
+    }
+
+    /** Return the packs, opening them on first use. */
+    private List<Pack> packs() {
+        if (_packs == null) {
+            List<Pack> packs = new ArrayList<Pack>();
+            String[] names = _packDir.list();
+            if (names != null) {
+                Arrays.sort(names);
+                for (String name : names) {
+                    File file = new File(_packDir, name);
+                    if (name.endsWith(".pack")
+                        && Pack.indexFile(file).isFile()) {
+                        packs.add(new Pack(file));
+                    }
+                }
+            }
+            _packs = packs;
+        }
+        return _packs;
+    }
+
+    /** Return a stream that writes a TYPE object to FILE. */
+    private static OutputStream deflating(File file, byte type)
+        throws IOException {
+        OutputStream out = new BufferedOutputStream(
+            new FileOutputStream(file), Blob.BUFFER_SIZE);
+        out.write(type);
+        return new DeflaterOutputStream(out);
+    }
+
+    /** Move the finished object file TMP into place as object ID. */
+    private void install(File tmp, ObjectId id) throws IOException {
+        File target = file(id);
+        target.getParentFile().mkdirs();
+        if (!target.exists()) {
+            Files.move(tmp.toPath(), target.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /** Return a new temporary file in the object directory. */
+    private File tempFile() {
+        try {
+            _dir.mkdirs();
+            return File.createTempFile("obj", ".tmp", _dir);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /** Return the file holding object ID loose, or null if it is not
+     *  held loose. */
+    private File looseFile(ObjectId id) {
+        File file = file(id);
+        return file.isFile() ? file : null;
+    }
+
+    /** Return the file object ID was kept in by older versions. */
+    private File legacyFile(ObjectId id) {
+        return Utils.join(_legacyDir, id.toString());
+    }
+
+    /** Where objects are kept. */
+    private final File _dir;
+    /** Where packs are kept. */
+    private final File _packDir;
+    /** Where older versions kept them. */
+    private final File _legacyDir;
+    /** False once a hard link into this store has failed. */
+    private volatile boolean _linkable = true;
+    /** The packs, or null if they have not been opened. */
+    private volatile List<Pack> _packs;
+
+}
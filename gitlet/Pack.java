@@ -0,0 +1,521 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Many objects kept in one file.  A pack file holds a header and then,
+ * for each object, its type byte, the length of its deflated contents
+ * and the deflated contents themselves, laid out in the order they are
+ * likely to be read.  An object may instead be stored as a delta (see
+ * Delta) against another object in the same pack, in which case its
+ * type byte is DELTA and its data is the base's ID followed by the
+ * deflated delta.  Beside the pack an index file holds a fanout table on
+ * the first byte of the IDs, the IDs in sorted order, and the offset of
+ * each in the pack.  Both are memory-mapped, so reading an object is a
+ * binary search and an inflate, with no file to open.  Recently used
+ * delta bases are cached, as reading a file's history tends to use the
+ * same bases again and again.
+ *  @author XiWang */
+
+public class Pack {
+
+    /** Marks a pack file. */
+    private static final int PACK_MAGIC = 0x474c504b;
+    /** Marks a pack index file. */
+    private static final int IDX_MAGIC = 0x474c4958;
+    /** Format version of both files. */
+    private static final int VERSION = 1;
+    /** Bytes of magic, version and object count in both files. */
+    private static final int HEADER_BYTES = 12;
+    /** Bytes in the fanout table. */
+    private static final int FANOUT_BYTES = 256 * 4;
+    /** Bytes of type and data length before each object's data. */
+    private static final int ENTRY_HEADER_BYTES = 9;
+
+    /** Type byte of an object stored as a delta. */
+    static final byte DELTA = 64;
+
+    /** Delta bases read recently, by ID, shared by all packs.  The cache
+     *  holds at most gitlet.deltaBaseCache.bytes bytes (default 32 MB). */
+    private static final BaseCache BASES =
+        new BaseCache(Long.getLong("gitlet.deltaBaseCache.bytes", 32L << 20));
+
+    /** The pack PACKFILE, with its index beside it. */
+    Pack(File packFile) {
+        _file = packFile;
+        _pack = map(packFile);
+        _idx = map(indexFile(packFile));
+        if (_pack.getInt(0) != PACK_MAGIC || _idx.getInt(0) != IDX_MAGIC
+            || _idx.getInt(4) != VERSION) {
+            throw new GitletException("Corrupt pack " + packFile + ".");
+        }
+        _count = _idx.getInt(8);
+    }
+
+    /** Return the index file of the pack PACKFILE. */
+    static File indexFile(File packFile) {
+        String name = packFile.getName();
+        return new File(packFile.getParentFile(),
+                        name.substring(0, name.length() - ".pack".length())
+                        + ".idx");
+    }
+
+    /** Return the pack file. */
+    File file() {
+        return _file;
+    }
+
+    /** Return the number of objects in the pack. */
+    int size() {
+        return _count;
+    }
+
+    /** Return the ID of the Kth object in ID order. */
+    ObjectId id(int k) {
+        byte[] id = new byte[ObjectId.LENGTH];
+        _idx.get(idOffset(k), id);
+        return ObjectId.fromBytes(id);
+    }
+
+    /** Return the offset in the pack of object ID, or -1 if it is not
+     *  here. */
+    long find(ObjectId id) {
+        byte[] key = id.toBytes();
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1), hi = fanout(first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, key);
+            if (cmp == 0) {
+                return _idx.getLong(offsetOffset(mid));
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the type of the object at OFFSET: that of its base if it
+     *  is a delta. */
+    byte type(long offset) {
+        while (isDelta(offset)) {
+            offset = find(baseId(offset));
+        }
+        return _pack.get((int) offset);
+    }
+
+    /** Return true if the object at OFFSET is stored as a delta. */
+    boolean isDelta(long offset) {
+        return _pack.get((int) offset) == DELTA;
+    }
+
+    /** Return the deflated contents of the object at OFFSET, which must
+     *  not be a delta. */
+    ByteBuffer data(long offset) {
+        int pos = (int) offset;
+        long length = _pack.getLong(pos + 1);
+        return _pack.slice(pos + ENTRY_HEADER_BYTES, (int) length);
+    }
+
+    /** Return a stream of the contents of the object at OFFSET. */
+    InputStream open(long offset) {
+        if (isDelta(offset)) {
+            return new ByteArrayInputStream(read(offset));
+        }
+        return new Inflating(data(offset));
+    }
+
+    /** Return the contents of the object at OFFSET. */
+    byte[] read(long offset) {
+        if (!isDelta(offset)) {
+            return inflate(data(offset));
+        }
+        ObjectId baseId = baseId(offset);
+        byte[] base = BASES.get(baseId);
+        if (base == null) {
+            long baseOffset = find(baseId);
+            if (baseOffset < 0) {
+                throw new GitletException("Missing delta base " + baseId
+                                          + ".");
+            }
+            base = read(baseOffset);
+            BASES.put(baseId, base);
+        }
+        int pos = (int) offset + ENTRY_HEADER_BYTES + ObjectId.LENGTH;
+        int length = (int) _pack.getLong((int) offset + 1) - ObjectId.LENGTH;
+        return Delta.apply(base, inflate(_pack.slice(pos, length)));
+    }
+
+    /** Return the ID of the base of the delta at OFFSET. */
+    private ObjectId baseId(long offset) {
+        byte[] id = new byte[ObjectId.LENGTH];
+        _pack.get((int) offset + ENTRY_HEADER_BYTES, id);
+        return ObjectId.fromBytes(id);
+    }
+
+    /** Return the inflated contents of DATA. */
+    private static byte[] inflate(ByteBuffer data) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (InputStream in = new Inflating(data)) {
+            in.transferTo(result);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        return result.toByteArray();
+    }
+
+    /** Writes a new pack. */
+    static class Writer {
+        /** A writer of a pack in DIR. */
+        Writer(File dir) throws IOException {
+            dir.mkdirs();
+            _dir = dir;
+            _tmp = File.createTempFile("pack", ".tmp", dir);
+            _out = new RandomAccessFile(_tmp, "rw").getChannel();
+            _out.write(ByteBuffer.allocate(HEADER_BYTES));
+        }
+
+        /** Return the number of bytes written so far. */
+        long length() throws IOException {
+            return _out.position();
+        }
+
+        /** Add object ID of type TYPE, whose deflated contents are the
+         *  LENGTH bytes of SOURCE starting at POSITION. */
+        void add(ObjectId id, byte type, FileChannel source, long position,
+                 long length) throws IOException {
+            startEntry(id, type, length);
+            for (long done = 0; done < length; ) {
+                done += source.transferTo(position + done, length - done,
+                                          _out);
+            }
+        }
+
+        /** Add object ID of type TYPE, whose deflated contents are the
+         *  next LENGTH bytes of SOURCE. */
+        void add(ObjectId id, byte type, ReadableByteChannel source,
+                 long length) throws IOException {
+            long start = startEntry(id, type, length) + ENTRY_HEADER_BYTES;
+            for (long done = 0; done < length; ) {
+                long n = _out.transferFrom(source, start + done,
+                                           length - done);
+                if (n <= 0) {
+                    throw new EOFException();
+                }
+                done += n;
+            }
+            _out.position(start + length);
+        }
+
+        /** Add object ID of type TYPE, whose deflated contents are DATA. */
+        void add(ObjectId id, byte type, ByteBuffer data) throws IOException {
+            startEntry(id, type, data.remaining());
+            while (data.hasRemaining()) {
+                _out.write(data);
+            }
+        }
+
+        /** Add object ID as the delta DELTA against object BASE, which
+         *  must already have been added. */
+        void addDelta(ObjectId id, ObjectId base, byte[] delta)
+            throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            bytes.write(base.toBytes());
+            Deflater deflater = new Deflater();
+            try (DeflaterOutputStream out =
+                     new DeflaterOutputStream(bytes, deflater)) {
+                out.write(delta);
+            } finally {
+                deflater.end();
+            }
+            add(id, DELTA, ByteBuffer.wrap(bytes.toByteArray()));
+        }
+
+        /** Add object ID of type TYPE, whose contents are read from IN. */
+        void add(ObjectId id, byte type, InputStream in) throws IOException {
+            long start = startEntry(id, type, 0);
+            Deflater deflater = new Deflater();
+            try {
+                OutputStream buffered = new BufferedOutputStream(
+                    Channels.newOutputStream(_out), Blob.BUFFER_SIZE);
+                DeflaterOutputStream out =
+                    new DeflaterOutputStream(buffered, deflater);
+                in.transferTo(out);
+                out.finish();
+                buffered.flush();
+            } finally {
+                deflater.end();
+            }
+            long length = _out.position() - start - ENTRY_HEADER_BYTES;
+            _out.write(ByteBuffer.allocate(8).putLong(0, length), start + 1);
+        }
+
+        /** Return a stream of the contents of object ID if it has been
+         *  added whole, or else null. */
+        InputStream open(ObjectId id) throws IOException {
+            Long offset = _whole.get(id);
+            if (offset == null) {
+                return null;
+            }
+            FileInputStream in = new FileInputStream(_tmp);
+            in.getChannel().position(offset + ENTRY_HEADER_BYTES);
+            return new InflaterInputStream(
+                new BufferedInputStream(in, Blob.BUFFER_SIZE));
+        }
+
+        /** Finish the pack, name it after the objects in it, and return
+         *  its file. */
+        File finish() throws IOException {
+            _out.write(ByteBuffer.allocate(HEADER_BYTES).putInt(PACK_MAGIC)
+                       .putInt(VERSION).putInt(_ids.size()).flip(), 0);
+            _out.force(true);
+            _out.close();
+            int n = _ids.size();
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i += 1) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> _ids.get(a).compareTo(_ids.get(b)));
+            ByteBuffer idx = ByteBuffer.allocate(
+                HEADER_BYTES + FANOUT_BYTES + n * (ObjectId.LENGTH + 8));
+            idx.putInt(IDX_MAGIC).putInt(VERSION).putInt(n);
+            int[] fanout = new int[256];
+            for (ObjectId id : _ids) {
+                fanout[id.firstByte()] += 1;
+            }
+            int total = 0;
+            for (int count : fanout) {
+                total += count;
+                idx.putInt(total);
+            }
+            MessageDigest md = Blob.sha1();
+            byte[] id = new byte[ObjectId.LENGTH];
+            for (int i : order) {
+                _ids.get(i).copyTo(id, 0);
+                md.update(id);
+                idx.put(id);
+            }
+            for (int i : order) {
+                idx.putLong(_offsets.get(i));
+            }
+            String name = "pack-" + Utils.bytesToHex(md.digest());
+            File pack = new File(_dir, name + ".pack");
+            File tmpIdx = File.createTempFile("idx", ".tmp", _dir);
+            try {
+                Files.write(tmpIdx.toPath(), idx.array());
+                Files.move(_tmp.toPath(), pack.toPath(),
+                           StandardCopyOption.ATOMIC_MOVE);
+                Files.move(tmpIdx.toPath(), indexFile(pack).toPath(),
+                           StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tmpIdx.delete();
+            }
+            return pack;
+        }
+
+        /** Throw the unfinished pack away. */
+        void abandon() {
+            try {
+                _out.close();
+            } catch (IOException excp) {
+                /* Ignore; the file is being removed. */
+            }
+            _tmp.delete();
+        }
+
+        /** Write the header of an entry for object ID of type TYPE with
+         *  LENGTH bytes of data, and return its offset. */
+        private long startEntry(ObjectId id, byte type, long length)
+            throws IOException {
+            long offset = _out.position();
+            _ids.add(id);
+            _offsets.add(offset);
+            if (type != DELTA) {
+                _whole.put(id, offset);
+            }
+            ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_BYTES);
+            header.put(type).putLong(length).flip();
+            _out.write(header);
+            return offset;
+        }
+
+        /** Directory the pack goes in. */
+        private final File _dir;
+        /** The pack while it is written. */
+        private final File _tmp;
+        /** Output to _tmp. */
+        private final FileChannel _out;
+        /** IDs of the objects added, in order. */
+        private final List<ObjectId> _ids = new ArrayList<ObjectId>();
+        /** Their offsets. */
+        private final List<Long> _offsets = new ArrayList<Long>();
+        /** The offsets of the objects not added as deltas, by ID. */
+        private final Map<ObjectId, Long> _whole =
+            new HashMap<ObjectId, Long>();
+    }
+
+    /** Delta bases, least recently used first, bounded in total size. */
+    private static class BaseCache {
+        /** A cache of at most MAXBYTES bytes. */
+        BaseCache(long maxBytes) {
+            _maxBytes = maxBytes;
+        }
+
+        /** Return the contents of base ID, or null if not cached. */
+        synchronized byte[] get(ObjectId id) {
+            return _entries.get(id);
+        }
+
+        /** Cache CONTENTS as those of base ID. */
+        synchronized void put(ObjectId id, byte[] contents) {
+            if (contents.length > _maxBytes) {
+                return;
+            }
+            byte[] old = _entries.put(id, contents);
+            if (old != null) {
+                _bytes -= old.length;
+            }
+            _bytes += contents.length;
+            Iterator<byte[]> eldest = _entries.values().iterator();
+            while (_bytes > _maxBytes) {
+                _bytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+
+        /** Most bytes held. */
+        private final long _maxBytes;
+        /** Bytes held. */
+        private long _bytes;
+        /** Cached bases, in access order. */
+        private final LinkedHashMap<ObjectId, byte[]> _entries =
+            new LinkedHashMap<ObjectId, byte[]>(16, 0.75f, true);
+    }
+
+    /** Inflates the deflated data in a buffer. */
+    private static class Inflating extends InputStream {
+        /** A stream of the inflated contents of DATA. */
+        Inflating(ByteBuffer data) {
+            _inflater = new Inflater();
+            _inflater.setInput(data);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            try {
+                while (true) {
+                    int n = _inflater.inflate(b, off, len);
+                    if (n > 0) {
+                        return n;
+                    }
+                    if (_inflater.finished() || _inflater.needsInput()) {
+                        return -1;
+                    }
+                    if (_inflater.needsDictionary()) {
+                        throw new IOException("Corrupt packed object.");
+                    }
+                }
+            } catch (DataFormatException excp) {
+                throw new IOException("Corrupt packed object.");
+            }
+        }
+
+        @Override
+        public void close() {
+            _inflater.end();
+        }
+
+        /** Inflates the data. */
+        private final Inflater _inflater;
+    }
+
+    /** Map the whole of FILE. */
+    private static MappedByteBuffer map(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                               channel.size());
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /** Return the number of IDs whose first byte is at most FIRST. */
+    private int fanout(int first) {
+        return _idx.getInt(HEADER_BYTES + 4 * first);
+    }
+
+    /** Compare the ID at K with KEY. */
+    private int compareId(int k, byte[] key) {
+        int off = idOffset(k);
+        for (int i = 0; i < ObjectId.LENGTH; i += 1) {
+            int cmp = (_idx.get(off + i) & 0xff) - (key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Return the index-file offset of the Kth ID. */
+    private int idOffset(int k) {
+        return HEADER_BYTES + FANOUT_BYTES + k * ObjectId.LENGTH;
+    }
+
+    /** Return the index-file offset of the pack offset of the Kth ID. */
+    private int offsetOffset(int k) {
+        return HEADER_BYTES + FANOUT_BYTES + _count * ObjectId.LENGTH
+            + k * 8;
+    }
+
+    /** The pack file. */
+    private final File _file;
+    /** The pack file, mapped. */
+    private final MappedByteBuffer _pack;
+    /** The index file, mapped. */
+    private final MappedByteBuffer _idx;
+    /** Number of objects. */
+    private final int _count;
+
+}
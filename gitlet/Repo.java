@@ -1,12 +1,28 @@
 package gitlet;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 
 /** A repository.
  *  @author XiWang */
@@ -17,17 +33,230 @@ public class Repo implements Serializable {
     public Repo() {
         curDir = new File(".");
         objectFolder = Utils.join(curDir, ".gitlet");
+        _store = new MetaStore(objectFolder);
+        _objects = new ObjectStore(objectFolder);
         _remoteDir = new TreeMap<String, File>();
-        _commitToMessage = new TreeMap<String, String>();
-        commits = new ArrayList<String>();
+        _commitToMessage = new TreeMap<ObjectId, String>();
+        commits = new ArrayList<ObjectId>();
         headCache = new Commit();
-        _branches = new TreeMap<String, String>();
+        _branches = new TreeMap<String, ObjectId>();
         head = headCache.getHash();
         _currentBranch = "master";
         newCommit();
         _stagingArea = new Index(headCache);
     }
 
+    /** An empty repo whose metadata lives in OBJECTDIR, to be filled in
+     *  from its store. */
+    private Repo(File objectDir) {
+        objectFolder = objectDir;
+        curDir = objectDir.getParentFile();
+        _store = new MetaStore(objectFolder);
+        _objects = new ObjectStore(objectFolder);
+        _remoteDir = new TreeMap<String, File>();
+        _commitToMessage = new TreeMap<ObjectId, String>();
+        commits = new ArrayList<ObjectId>();
+        _branches = new TreeMap<String, ObjectId>();
+    }
+
+    /** Return true if OBJECTDIR holds a repository. */
+    static boolean exists(File objectDir) {
+        return new MetaStore(objectDir).exists()
+            || Utils.join(objectDir, "REPO").exists();
+    }
+
+    /** Return the repository stored in OBJECTDIR.  A repository still
+     *  kept as a single serialized REPO file is read from it, and is
+     *  only converted when it is next saved, so that merely reading it,
+     *  as a fetch from it does, leaves it as it was. */
+    static Repo open(File objectDir) {
+        Repo repo = new Repo(objectDir);
+        File legacy = Utils.join(objectDir, "REPO");
+        if (!repo._store.exists() && legacy.exists()) {
+            Repo old = Utils.readObject(legacy, Repo.class);
+            repo.commits = old.commits;
+            repo._commitToMessage = old._commitToMessage;
+            repo._branches = old._branches;
+            repo._currentBranch = old._currentBranch;
+            repo._remoteDir = old._remoteDir;
+            repo.head = old.head;
+            repo.headCache = old.headCache;
+            repo._stagingArea = old._stagingArea;
+            return repo;
+        }
+        Map<String, ObjectId> staged = new LinkedHashMap<String, ObjectId>();
+        List<MetaStore.Record> stats = new ArrayList<MetaStore.Record>();
+        for (MetaStore.Record r : repo._store.replay()) {
+            if (r.op == MetaStore.STAT) {
+                stats.add(r);
+            } else {
+                repo.apply(r, staged);
+            }
+        }
+        repo.commits = new ArrayList<ObjectId>(
+            new LinkedHashSet<ObjectId>(repo.commits));
+        repo.head = repo._branches.get(repo._currentBranch);
+        repo.headCache = repo.getCommit(repo.head);
+        repo._stagingArea = new Index(repo.headCache);
+        for (Map.Entry<String, ObjectId> e : staged.entrySet()) {
+            if (e.getValue() == null) {
+                repo._stagingArea.getTree().remove(e.getKey());
+            } else {
+                repo._stagingArea.addFile(e.getKey(), e.getValue());
+            }
+        }
+        for (MetaStore.Record r : stats) {
+            String[] f = r.fields;
+            repo._stagingArea.setStat(f[0], new Index.Stat(
+                Long.parseLong(f[2]), Long.parseLong(f[3]),
+                Long.parseLong(f[4]), Long.parseLong(f[5]),
+                ObjectId.fromHex(f[1])));
+        }
+        return repo;
+    }
+
+    /** Apply the stored record R.  Index changes made since the last
+     *  reset to the head commit are collected in STAGED, with null for
+     *  a removed file. */
+    private void apply(MetaStore.Record r, Map<String, ObjectId> staged) {
+        String[] f = r.fields;
+        switch (r.op) {
+        case MetaStore.COMMIT:
+            commits.add(ObjectId.fromHex(f[0]));
+            break;
+        case MetaStore.MESSAGE:
+            _commitToMessage.put(ObjectId.fromHex(f[0]), f[1]);
+            break;
+        case MetaStore.BRANCH:
+            _branches.put(f[0], ObjectId.fromHex(f[1]));
+            break;
+        case MetaStore.RM_BRANCH:
+            _branches.remove(f[0]);
+            break;
+        case MetaStore.CURRENT:
+            _currentBranch = f[0];
+            break;
+        case MetaStore.REMOTE:
+            _remoteDir.put(f[0], new File(f[1]));
+            break;
+        case MetaStore.RM_REMOTE:
+            _remoteDir.remove(f[0]);
+            break;
+        case MetaStore.INDEX_RESET:
+            staged.clear();
+            break;
+        case MetaStore.STAGE:
+            staged.put(f[0], ObjectId.fromHex(f[1]));
+            break;
+        case MetaStore.UNSTAGE:
+            staged.put(f[0], null);
+            break;
+        default:
+            throw new GitletException("Corrupt repository metadata.");
+        }
+    }
+
+    /** Return records that rebuild the whole current state. */
+    private List<MetaStore.Record> stateRecords() {
+        List<MetaStore.Record> result = new ArrayList<MetaStore.Record>();
+        for (ObjectId c : commits) {
+            result.add(new MetaStore.Record(MetaStore.COMMIT, c.toString()));
+        }
+        for (Map.Entry<ObjectId, String> e : _commitToMessage.entrySet()) {
+            result.add(new MetaStore.Record(MetaStore.MESSAGE,
+                                            e.getKey().toString(),
+                                            e.getValue()));
+        }
+        for (Map.Entry<String, ObjectId> e : _branches.entrySet()) {
+            result.add(new MetaStore.Record(MetaStore.BRANCH, e.getKey(),
+                                            e.getValue().toString()));
+        }
+        result.add(new MetaStore.Record(MetaStore.CURRENT, _currentBranch));
+        for (Map.Entry<String, File> e : _remoteDir.entrySet()) {
+            result.add(new MetaStore.Record(MetaStore.REMOTE, e.getKey(),
+                                            e.getValue().getPath()));
+        }
+        for (String file : getStaged()) {
+            result.add(new MetaStore.Record(
+                MetaStore.STAGE, file, _stagingArea.tracked(file).toString()));
+        }
+        for (String file : getRemovedFiles()) {
+            result.add(new MetaStore.Record(MetaStore.UNSTAGE, file));
+        }
+        for (Map.Entry<String, Index.Stat> e
+                 : _stagingArea.getStats().entrySet()) {
+            if (_stagingArea.tracked(e.getKey()) != null) {
+                result.add(statRecord(e.getKey(), e.getValue()));
+            }
+        }
+        return result;
+    }
+
+    /** Return the record of stat data STAT for FILE. */
+    private static MetaStore.Record statRecord(String file, Index.Stat stat) {
+        return new MetaStore.Record(MetaStore.STAT, file,
+                                    stat.hash.toString(),
+                                    Long.toString(stat.size),
+                                    Long.toString(stat.mtime),
+                                    Long.toString(stat.inode),
+                                    Long.toString(stat.recorded));
+    }
+
+    /** Record that FILE, with current stat data STAT, has content HASH. */
+    private void recordStat(String file, Index.Stat stat, ObjectId hash) {
+        if (stat == null) {
+            return;
+        }
+        Index.Stat labelled = stat.withHash(hash);
+        _stagingArea.setStat(file, labelled);
+        _store.record(MetaStore.STAT, statRecord(file, labelled).fields);
+    }
+
+    /** Write what changed since the repo was opened to its store, and
+     *  remove the legacy REPO file, if any, that the store replaces. */
+    public void save() {
+        _store.flush(this::stateRecords);
+        Utils.join(objectFolder, "REPO").delete();
+    }
+
+    /** Return a value that changes whenever this repo's store is saved,
+     *  by this process or any other. */
+    long stamp() {
+        return _store.stamp();
+    }
+
+    /** Point branch NAME at commit HASH. */
+    private void putBranch(String name, ObjectId hash) {
+        _branches.put(name, hash);
+        _store.record(MetaStore.BRANCH, name, hash.toString());
+    }
+
+    /** Add COMMIT, whose file is already stored, to the history, with
+     *  MESSAGE if it is not null, unless it is there already. */
+    private void addCommit(Commit commit, String message) {
+        ObjectId hash = commit.getHash();
+        if (commitIds().contains(hash)) {
+            return;
+        }
+        commitGraph().add(commit);
+        commitIds().add(hash);
+        commits.add(hash);
+        _store.record(MetaStore.COMMIT, hash.toString());
+        if (message != null) {
+            _commitToMessage.put(hash, message);
+            _store.record(MetaStore.MESSAGE, hash.toString(), message);
+        }
+    }
+
+    /** Make the head commit COMMIT and reset the staging area to it. */
+    private void moveHead(Commit commit) {
+        headCache = commit;
+        head = commit.getHash();
+        putBranch(_currentBranch, head);
+        _stagingArea = new Index(headCache, _stagingArea);
+        _store.record(MetaStore.INDEX_RESET);
+    }
+
     /** Return the path of current working directory. */
     public File getWorkingDir() {
         return curDir;
@@ -41,15 +270,24 @@ public class Repo implements Serializable {
         if (_stagingArea.getTree().equals(headCache.getTree())) {
             throw new GitletException("No changes added to the commit.");
         }
-        headCache = new Commit(_stagingArea, log, headCache.getHash());
-        byte[] fileContent = Utils.serialize(headCache);
-        head = headCache.getHash();
-        commits.add(head);
-        _commitToMessage.put(head, log);
-        File outputDir = Utils.join(objectFolder, head);
-        Utils.writeContents(outputDir, fileContent);
-        _stagingArea = new Index(headCache);
-        _branches.put(_currentBranch, head);
+        writeCommit(stagedCommit(log), log);
+    }
+
+    /** Return a new commit of the staging area with message LOG, whose
+     *  trees are stored. */
+    private Commit stagedCommit(String log) {
+        ObjectId root = Tree.write(_objects, _stagingArea.getTree());
+        return new Commit(_stagingArea, log, headCache.getHash(),
+                          _objects, root);
+    }
+
+    /** Store COMMIT with message LOG and make it the head. */
+    private void writeCommit(Commit commit, String log) {
+        byte[] fileContent = commit.toBytes();
+        _objects.write(commit.getHash(), ObjectStore.COMMIT, fileContent);
+        CommitCache.SHARED.put(commit, fileContent.length);
+        addCommit(commit, log);
+        moveHead(commit);
     }
 
     /** Add a new merge commit with message LOG, and another parent
@@ -58,24 +296,16 @@ public class Repo implements Serializable {
         if (_stagingArea.getTree().equals(headCache.getTree())) {
             throw new GitletException("No changes added to the commit.");
         }
-        headCache = new Commit(_stagingArea, log, headCache.getHash());
-        headCache.setCoParent(_branches.get(coparent));
-        byte[] fileContent = Utils.serialize(headCache);
-        head = headCache.getHash();
-        commits.add(head);
-        _commitToMessage.put(head, log);
-        File outputDir = Utils.join(objectFolder, head);
-        Utils.writeContents(outputDir, fileContent);
-        _stagingArea = new Index(headCache);
-        _branches.put(_currentBranch, head);
+        Commit commit = stagedCommit(log);
+        commit.setCoParent(_branches.get(coparent));
+        writeCommit(commit, log);
     }
 
     /** Store the initial hash. */
     public void newCommit() {
-        byte[] fileContent = Utils.serialize(headCache);
-        String hash = headCache.getHash();
-        File outputDir = Utils.join(objectFolder, hash);
-        Utils.writeContents(outputDir, fileContent);
+        byte[] fileContent = headCache.toBytes();
+        ObjectId hash = headCache.getHash();
+        _objects.write(hash, ObjectStore.COMMIT, fileContent);
         commits.add(hash);
         _commitToMessage.put(hash, "initial commit");
         _branches.put(_currentBranch, head);
@@ -83,63 +313,114 @@ public class Repo implements Serializable {
 
     /** Add a new file FILE to index and local disk. */
     public void addFile(String file) {
-        File fileDir = Utils.join(curDir, file);
-        byte[] fileContent = Utils.readContents(fileDir);
-        String hash = readFileHash(file);
-        File outputDir = Utils.join(objectFolder, hash);
-        Utils.writeContents(outputDir, fileContent);
-        _stagingArea.addFile(file, hash);
+        addFiles(Collections.singletonList(file));
+    }
+
+    /** Add the working files FILES to index and local disk.  The files
+     *  are read and stored in parallel. */
+    public void addFiles(Collection<String> files) {
+        Map<String, WorkTreeScanner.Entry> found =
+            new WorkTreeScanner(curDir, _stagingArea, _objects).scan(files);
+        for (String file : files) {
+            WorkTreeScanner.Entry e = found.get(file);
+            if (e.hash == null) {
+                throw new GitletException("File does not exist.");
+            }
+            if (e.fresh) {
+                recordStat(file, e.stat, e.hash);
+            }
+            _stagingArea.addFile(file, e.hash);
+            _store.record(MetaStore.STAGE, file, e.hash.toString());
+        }
     }
 
     /** Extract a file FILE from blobs HASH, store it with name. */
-    private void extractFile(String file, String hash) {
-        File blobDir = Utils.join(objectFolder, hash);
+    private void extractFile(String file, ObjectId hash) {
         File writeDir = Utils.join(curDir, file);
-        Utils.writeContents(writeDir, Utils.readContents(blobDir));
+        writeDir.getParentFile().mkdirs();
+        _objects.copyTo(hash, writeDir);
+        recordStat(file, Index.Stat.of(writeDir), hash);
+    }
+
+    /** Extract each file in FILES from the blob it maps to, in
+     *  parallel. */
+    private void extractFiles(Map<String, ObjectId> files) {
+        String[] names = files.keySet().toArray(new String[files.size()]);
+        Index.Stat[] stats = new Index.Stat[names.length];
+        WorkTreeScanner.pool().submit(() -> {
+            IntStream.range(0, names.length).parallel().forEach(i -> {
+                File writeDir = Utils.join(curDir, names[i]);
+                writeDir.getParentFile().mkdirs();
+                _objects.copyTo(files.get(names[i]), writeDir);
+                stats[i] = Index.Stat.of(writeDir);
+            });
+        }).join();
+        for (int i = 0; i < names.length; i += 1) {
+            recordStat(names[i], stats[i], files.get(names[i]));
+        }
     }
 
     /** Remove FILE from index. */
     public void removeFile(String file) {
-        if (_stagingArea.tracked(file).equals("")
-                && headCache.tracked(file).equals("")) {
+        if (_stagingArea.tracked(file) == null
+                && headCache.tracked(file) == null) {
             throw new GitletException("No reason to remove the file.");
         }
         boolean hard = _stagingArea.rmFile(file);
+        _store.record(MetaStore.UNSTAGE, file);
         if (hard) {
             removeHard(file);
         }
     }
 
-    /** Remove FILE from folder. */
+    /** Remove FILE from folder, along with any directories that leaves
+     *  empty. */
     private void removeHard(String file) {
-        Utils.restrictedDelete(Utils.join(curDir, file));
+        int slash = file.lastIndexOf('/');
+        if (slash < 0) {
+            Utils.restrictedDelete(Utils.join(curDir, file));
+            return;
+        }
+        if (!Utils.join(curDir, ".gitlet").isDirectory()) {
+            throw new IllegalArgumentException("not .gitlet working directory");
+        }
+        File target = Utils.join(curDir, file);
+        if (target.isDirectory()) {
+            return;
+        }
+        target.delete();
+        for (File dir = target.getParentFile(); slash >= 0
+                 && dir.delete(); dir = dir.getParentFile()) {
+            slash = file.lastIndexOf('/', slash - 1);
+        }
     }
 
     /** Show logs. */
     public void printLog() {
-        String first = head;
-        while (!first.equals("")) {
-            Commit t = getCommit(first);
-            System.out.println(t.toString());
-            first = t.getParent();
+        CommitGraph graph = commitGraph();
+        for (int pos = graph.lookup(head); pos != CommitGraph.NONE;
+             pos = graph.parent(pos)) {
+            System.out.println(getCommit(graph.id(pos)).toString());
         }
     }
 
     /** Show global log. */
     public void printGlobalLog() {
-        for (String c : commits) {
-            System.out.println(getCommit(c.toString()));
+        for (ObjectId c : commits) {
+            System.out.println(getCommit(c));
         }
     }
 
     /** Get modification but not staged files, return a set. */
     private TreeSet<String> getModifiedNotStaged() {
         TreeSet<String> result = new TreeSet<String>();
-        for (HashMap.Entry<String, String> e
+        Map<String, ObjectId> working =
+            readFileHashes(_stagingArea.getKeys());
+        for (HashMap.Entry<String, ObjectId> e
                 : _stagingArea.getTree().entrySet()) {
             String file = e.getKey();
-            String hash = e.getValue();
-            if (!hash.equals(readFileHash(file))) {
+            ObjectId hash = e.getValue();
+            if (!hash.equals(working.get(file))) {
                 result.add(file);
             }
         }
@@ -171,8 +452,7 @@ public class Repo implements Serializable {
         }
         System.out.println();
 
-        TreeSet<String> allFilesNameSet
-            = new TreeSet<>(Utils.plainFilenamesIn(curDir));
+        TreeSet<String> allFilesNameSet = new TreeSet<>(scanner().list());
         System.out.print("=== Modifications Not Staged For Commit ===\n");
         for (String s : getModifiedNotStaged()) {
             if (allFilesNameSet.contains(s)) {
@@ -191,12 +471,191 @@ public class Repo implements Serializable {
     }
 
     /** Read and return a commit with hash HASH from the history. */
-    public Commit getCommit(String hash) {
-        if (!commits.contains(hash)) {
+    public Commit getCommit(ObjectId hash) {
+        if (!commitIds().contains(hash)) {
             throw new GitletException("No commit with that id exists.");
         }
-        File readDir = Utils.join(objectFolder, hash);
-        return Utils.readObject(readDir, Commit.class);
+        return readCommit(hash);
+    }
+
+    /** Return the index of all commit IDs, building it on first use. */
+    private ObjectIdIndex commitIds() {
+        if (_commitIds == null) {
+            _commitIds = new ObjectIdIndex(commits);
+        }
+        return _commitIds;
+    }
+
+    /** Read and return the stored commit HASH, from the commit cache if
+     *  it has been read recently.  A cached commit may have been read by
+     *  another repository, such as a remote, so it is pointed at this
+     *  one's store for any trees it has yet to read. */
+    private Commit readCommit(ObjectId hash) {
+        Commit result = CommitCache.SHARED.get(hash);
+        if (result == null) {
+            byte[] contents = _objects.read(hash);
+            result = Commit.fromBytes(contents);
+            result.attach(_objects);
+            CommitCache.SHARED.put(result, contents.length);
+        } else {
+            result.attach(_objects);
+        }
+        return result;
+    }
+
+    /** Return the commit graph, rebuilding it first if it is missing or
+     *  does not know every branch. */
+    CommitGraph commitGraph() {
+        if (_graph == null) {
+            _graph = new CommitGraph(objectFolder);
+            for (ObjectId hash : _branches.values()) {
+                if (!_graph.contains(hash)) {
+                    rebuildCommitGraph();
+                    break;
+                }
+            }
+        }
+        return _graph;
+    }
+
+    /** Rewrite the commit graph from the stored commits. */
+    public void rebuildCommitGraph() {
+        ArrayList<Commit> all = new ArrayList<Commit>();
+        for (ObjectId hash : new LinkedHashSet<ObjectId>(commits)) {
+            all.add(readCommit(hash));
+        }
+        if (_graph == null) {
+            _graph = new CommitGraph(objectFolder);
+        }
+        _graph.rebuild(all);
+    }
+
+    /** Move all objects into packs.  Commits go first, newest first,
+     *  then their trees, followed by blobs in the order a walk back
+     *  through history first meets them, so that history walks and
+     *  checkouts of recent commits read the pack front to back.  Each
+     *  older version of a file is offered as a delta against the next
+     *  newer version at the same path, so that the newest versions are
+     *  the cheapest to read. */
+    public void repack() {
+        long start = System.nanoTime();
+        LinkedHashMap<ObjectId, Byte> order =
+            new LinkedHashMap<ObjectId, Byte>();
+        HashMap<ObjectId, ObjectId> bases = new HashMap<ObjectId, ObjectId>();
+        HashMap<String, ObjectId> newer = new HashMap<String, ObjectId>();
+        List<ObjectId> newestFirst = new ArrayList<ObjectId>(commits);
+        Collections.reverse(newestFirst);
+        for (ObjectId c : newestFirst) {
+            order.put(c, ObjectStore.COMMIT);
+        }
+        for (ObjectId c : newestFirst) {
+            ObjectId root = readCommit(c).getRoot();
+            if (root != null) {
+                Tree.collect(_objects, root, order);
+            }
+        }
+        for (ObjectId c : newestFirst) {
+            Commit commit = readCommit(c);
+            for (String file : new TreeSet<String>(commit.getKeys())) {
+                ObjectId blob = commit.tracked(file);
+                ObjectId base = newer.put(file, blob);
+                if (order.putIfAbsent(blob, ObjectStore.BLOB) == null
+                    && base != null) {
+                    bases.put(blob, base);
+                }
+            }
+        }
+        int n = _objects.repack(order, bases);
+        Utils.stats("repack: %d objects in %.1f ms", n,
+                    (System.nanoTime() - start) / 1e6);
+    }
+
+    /** Delete every object that nothing refers to and that is older
+     *  than GRACEMILLIS milliseconds, and forget the commits among them.
+     *  The commits reachable from a branch, through either parent, are
+     *  found from the commit graph, and then their trees and blobs are
+     *  marked in parallel, each tree only once.  The staging area's blobs
+     *  are live too, as are the chunks of every live chunked blob. */
+    public void gc(long graceMillis) {
+        long start = System.nanoTime();
+        CommitGraph graph = commitGraph();
+        ArrayList<ObjectId> reachable = new ArrayList<ObjectId>();
+        HashSet<Integer> seen = new HashSet<Integer>();
+        ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+        for (ObjectId hash : _branches.values()) {
+            work.push(graph.lookup(hash));
+        }
+        while (!work.isEmpty()) {
+            int pos = work.pop();
+            if (pos != CommitGraph.NONE && seen.add(pos)) {
+                reachable.add(graph.id(pos));
+                work.push(graph.parent(pos));
+                work.push(graph.coparent(pos));
+            }
+        }
+        Set<ObjectId> live = ConcurrentHashMap.newKeySet();
+        live.addAll(reachable);
+        WorkTreeScanner.pool().submit(() -> {
+            reachable.parallelStream().forEach(c -> markCommit(c, live));
+        }).join();
+        for (ObjectId blob : _stagingArea.getTree().values()) {
+            markBlob(blob, live);
+        }
+        HashSet<ObjectId> removed = new HashSet<ObjectId>();
+        long freed = _objects.prune(live,
+                                    System.currentTimeMillis() - graceMillis,
+                                    removed);
+        if (commits.removeIf(removed::contains)) {
+            _commitToMessage.keySet().removeIf(removed::contains);
+            for (ObjectId c : removed) {
+                CommitCache.SHARED.remove(c);
+            }
+            _commitIds = null;
+            rebuildCommitGraph();
+            _store.compact(stateRecords());
+        }
+        System.out.printf("Removed %d objects, %d bytes, in %.1f ms.%n",
+                          removed.size(), freed,
+                          (System.nanoTime() - start) / 1e6);
+    }
+
+    /** Check every stored object and that every object reachable from a
+     *  branch or the staging area is stored, and print what is wrong. */
+    public void fsck() {
+        new Fsck(_objects).check(_branches, _stagingArea.getTree().values());
+    }
+
+    /** Add the trees and blobs of commit C to LIVE. */
+    private void markCommit(ObjectId c, Set<ObjectId> live) {
+        Commit commit = readCommit(c);
+        if (commit.getRoot() != null) {
+            markTree(commit.getRoot(), live);
+        } else {
+            for (ObjectId blob : commit.getTree().values()) {
+                markBlob(blob, live);
+            }
+        }
+    }
+
+    /** Add tree ID, and all it holds, to LIVE, unless it is there. */
+    private void markTree(ObjectId id, Set<ObjectId> live) {
+        if (!live.add(id)) {
+            return;
+        }
+        Tree tree = Tree.read(_objects, id);
+        for (ObjectId blob : tree.files().values()) {
+            markBlob(blob, live);
+        }
+        for (ObjectId dir : tree.dirs().values()) {
+            markTree(dir, live);
+        }
+    }
+
+    /** Add blob ID, and its chunks if it has any, to LIVE. */
+    private void markBlob(ObjectId id, Set<ObjectId> live) {
+        if (live.add(id) && _objects.type(id) == ObjectStore.MANIFEST) {
+            live.addAll(ObjectStore.chunks(_objects.readRaw(id)));
+        }
     }
 
     /** Find commits with specific information */
@@ -211,73 +670,98 @@ public class Repo implements Serializable {
             throw new GitletException("No such branch exists.");
         }
         _currentBranch = name;
+        _store.record(MetaStore.CURRENT, name);
         revertWorkingFolder(_branches.get(name));
     }
 
     /** Reset a FILE from head. */
     public void revertFile(String file) {
-        String blobHash = headCache.tracked(file);
-        if (blobHash.equals("")) {
+        ObjectId blobHash = headCache.tracked(file);
+        if (blobHash == null) {
             throw new GitletException("File does not exist in that commit.");
         }
         extractFile(file, blobHash);
     }
 
     /** Reset a file from past commit COMMIT, MODIFIED FILE NOT STAGED. */
-    public void revertFile(String commit, String file) {
-        String originHash = headCache.tracked(file);
-        String blobHash = getCommit(commit).tracked(file);
-        if (blobHash.equals("")) {
+    public void revertFile(ObjectId commit, String file) {
+        ObjectId blobHash = getCommit(commit).tracked(file);
+        if (blobHash == null) {
             throw new GitletException("File does not exist in that commit.");
         }
         extractFile(file, blobHash);
     }
 
     /** Simply reset to a commit(dangerous) COMMIT. */
-    public void dangerousReset(String commit) {
-        HashMap<String, String> oldTree = getCommit(commit).getTree();
-        Set<String> oldKey = oldTree.keySet();
-        Set<String> currentKey = _stagingArea.getTree().keySet();
-        for (String file : currentKey) {
-            removeHard(file);
-        }
-        for (String file : oldKey) {
-            extractFile(file, oldTree.get(file));
-        }
-        headCache = getCommit(commit);
-        head = commit;
-        _branches.put(_currentBranch, head);
-        _stagingArea = new Index(headCache);
+    public void dangerousReset(ObjectId commit) {
+        switchTo(getCommit(commit), false);
     }
 
     /** Reset whole working folder to past commit COMMIT. */
-    public void revertWorkingFolder(String commit) {
-        if (!commits.contains(commit)) {
+    public void revertWorkingFolder(ObjectId commit) {
+        if (!commitIds().contains(commit)) {
             throw new GitletException("No commit with that id exists.");
         }
-        HashMap<String, String> oldTree = getCommit(commit).getTree();
-        Set<String> oldKey = oldTree.keySet();
-        Set<String> currentKey = _stagingArea.getTree().keySet();
-        for (String file : oldKey) {
-            if (_stagingArea.tracked(file).equals("")) {
-                File fileDir = Utils.join(curDir, file);
-                if (fileDir.exists()) {
+        switchTo(getCommit(commit), true);
+    }
+
+    /** Make the working folder and staging area those of commit TARGET,
+     *  and make it the head.  Only files that differ are deleted or
+     *  written, and the writes are done in parallel.  A file can differ
+     *  only if it differs between the head and TARGET, if it is staged
+     *  or removed, or if its working copy was changed; only files of the
+     *  last kind need to be read, and then only if their stat data says
+     *  they may have changed.  If CHECKUNTRACKED, refuse to overwrite an
+     *  untracked file. */
+    private void switchTo(Commit target, boolean checkUntracked) {
+        long start = System.nanoTime();
+        TreeSet<String> differing =
+            new TreeSet<String>(changes(headCache, target).keySet());
+        differing.addAll(getStaged());
+        differing.addAll(getRemovedFiles());
+        if (checkUntracked) {
+            for (String file : differing) {
+                if (target.tracked(file) != null
+                        && _stagingArea.tracked(file) == null
+                        && Utils.join(curDir, file).exists()) {
                     throw new GitletException(
                             "There is an untracked file in the way; "
                             + "delete it or add it first.");
                 }
             }
         }
-        for (String file : currentKey) {
-            removeHard(file);
+        TreeMap<String, ObjectId> toWrite = new TreeMap<String, ObjectId>();
+        ArrayList<String> toDelete = new ArrayList<String>();
+        for (String file : differing) {
+            ObjectId hash = target.tracked(file);
+            if (hash != null) {
+                toWrite.put(file, hash);
+            } else if (_stagingArea.tracked(file) != null) {
+                toDelete.add(file);
+            }
         }
-        for (String file : oldKey) {
-            extractFile(file, oldTree.get(file));
+        ArrayList<String> same = new ArrayList<String>();
+        for (String file : target.getKeys()) {
+            if (!differing.contains(file)) {
+                same.add(file);
+            }
         }
-        headCache = getCommit(commit);
-        head = headCache.getHash();
-        _branches.put(_currentBranch, head);
-        _stagingArea = new Index(headCache);
+        Map<String, ObjectId> working = readFileHashes(same);
+        for (String file : same) {
+            ObjectId hash = target.tracked(file);
+            if (!hash.equals(working.get(file))) {
+                toWrite.put(file, hash);
+            }
+        }
+        for (String file : toDelete) {
+            removeHard(file);
+        }
+        extractFiles(toWrite);
+        moveHead(target);
+        Utils.stats("checkout: %d written, %d deleted, %d unchanged"
+                    + " in %.1f ms", toWrite.size(), toDelete.size(),
+                    target.getKeys().size() - toWrite.size(),
+                    (System.nanoTime() - start) / 1e6);
     }
 
     /** Create a new branch NAME. */
@@ -286,7 +770,7 @@ public class Repo implements Serializable {
             throw
                 new GitletException("A branch with that name already exists.");
         }
-        _branches.put(name, head);
+        putBranch(name, head);
     }
 
     /** Remove a branch NAME. */
@@ -299,24 +783,44 @@ public class Repo implements Serializable {
                 new GitletException("A branch with that name does not exist.");
         }
         _branches.remove(name);
+        _store.record(MetaStore.RM_BRANCH, name);
     }
 
-    /** Read FILE's content, return its hash. */
-    private String readFileHash(String file) {
-        File fileDir = Utils.join(curDir, file);
-        if (!fileDir.exists()) {
-            return "";
+    /** Read FILE's content, return its hash.  A file whose stat data
+     *  shows it unchanged since it was last hashed is not read again. */
+    private ObjectId readFileHash(String file) {
+        WorkTreeScanner.Entry e = scanner().scan(file);
+        if (e.fresh) {
+            recordStat(file, e.stat, e.hash);
         }
-        return Utils.sha1(Utils.readContents(fileDir));
+        return e.hash;
+    }
+
+    /** Return the hashes of FILES, null for those that do not exist, as
+     *  for readFileHash.  Files are hashed in parallel. */
+    private Map<String, ObjectId> readFileHashes(Collection<String> files) {
+        HashMap<String, ObjectId> result = new HashMap<String, ObjectId>();
+        for (WorkTreeScanner.Entry e : scanner().scan(files).values()) {
+            if (e.fresh) {
+                recordStat(e.name, e.stat, e.hash);
+            }
+            result.put(e.name, e.hash);
+        }
+        return result;
+    }
+
+    /** Return a scanner of the working directory. */
+    private WorkTreeScanner scanner() {
+        return new WorkTreeScanner(curDir, _stagingArea);
     }
 
     /** Get staged files, return a set. */
     public TreeSet<String> getStaged() {
         TreeSet<String> result = new TreeSet<String>();
-        for (HashMap.Entry<String, String> e
+        for (HashMap.Entry<String, ObjectId> e
                 : _stagingArea.getTree().entrySet()) {
             String file = e.getKey();
-            String hash = e.getValue();
+            ObjectId hash = e.getValue();
             if (!hash.equals(headCache.tracked(file))) {
                 result.add(file);
             }
@@ -327,10 +831,10 @@ public class Repo implements Serializable {
     /** Get removed files, return a set. */
     public TreeSet<String> getRemovedFiles() {
         TreeSet<String> result = new TreeSet<String>();
-        for (HashMap.Entry<String, String> e
+        for (HashMap.Entry<String, ObjectId> e
                 : headCache.getTree().entrySet()) {
             String file = e.getKey();
-            if (_stagingArea.tracked(file).equals("")) {
+            if (_stagingArea.tracked(file) == null) {
                 result.add(file);
             }
         }
@@ -341,27 +845,34 @@ public class Repo implements Serializable {
      *  GIVENBRANCH.
      *  CURRENTBRANCH.
      *  SPLITPOINTCOMMIT.
+     *  CANDIDATES, the files that differ between SPLITPOINTCOMMIT and
+     *  GIVENBRANCH, as no other file needs merging.
      *  TOBECHECKEDOUT.
      *  CONFLICTFILE.
+     *  WORKING, the hashes of the working files.
      */
     private void suoDuanMergeFangFa(Commit givenBranch,
                                     Commit currentBranch,
                                     Commit splitPointCommit,
+                                    Set<String> candidates,
                                     Set<String> toBeCheckedOut,
-                                    Set<String> conflictFile) {
-        for (String file : givenBranch.getKeys()) {
-            String givenFileHash = givenBranch.tracked(file);
-            String currentFileHash = currentBranch.tracked(file);
-            if (!givenFileHash.equals(currentFileHash)) {
-                String splitPointHash = splitPointCommit.tracked(file);
-                if ((!currentFileHash.equals(splitPointHash))
+                                    Set<String> conflictFile,
+                                    Map<String, ObjectId> working) {
+        for (String file : candidates) {
+            ObjectId givenFileHash = givenBranch.tracked(file);
+            ObjectId currentFileHash = currentBranch.tracked(file);
+            if (givenFileHash != null
+                    && !givenFileHash.equals(currentFileHash)) {
+                ObjectId splitPointHash = splitPointCommit.tracked(file);
+                if ((!Objects.equals(currentFileHash, splitPointHash))
                         && (!givenFileHash.equals(splitPointHash))) {
                     conflictFile.add(file);
                     continue;
                 }
-                if (currentFileHash.equals(splitPointCommit.tracked(file))) {
-                    if ((!readFileHash(file).equals(""))
-                            && (currentFileHash.equals(""))) {
+                if (Objects.equals(currentFileHash,
+                                   splitPointCommit.tracked(file))) {
+                    if ((working.get(file) != null)
+                            && (currentFileHash == null)) {
                         throw
                             new GitletException(
                                     "There is an untracked file in the way; "
@@ -377,19 +888,24 @@ public class Repo implements Serializable {
      *  GIVENBRANCH.
      *  CURRENTBRANCH.
      *  SPLITPOINTCOMMIT.
+     *  CANDIDATES, the files that differ between SPLITPOINTCOMMIT and
+     *  GIVENBRANCH.
      *  TOBEDELETED.
      *  CONFLICTFILE.
+     *  WORKING, the hashes of the working files.
      */
     private void suoDuanMergeFangFa2(Commit givenBranch,
                                      Commit currentBranch,
                                      Commit splitPointCommit,
+                                     Set<String> candidates,
                                      Set<String> toBeDeleted,
-                                     Set<String> conflictFile) {
-        for (String file : currentBranch.getKeys()) {
-            String givenFileHash = givenBranch.tracked(file);
-            String currentFileHash = currentBranch.tracked(file);
-            if (givenFileHash.equals("")) {
-                if ((!splitPointCommit.tracked(file).equals("")
+                                     Set<String> conflictFile,
+                                     Map<String, ObjectId> working) {
+        for (String file : candidates) {
+            ObjectId givenFileHash = givenBranch.tracked(file);
+            ObjectId currentFileHash = currentBranch.tracked(file);
+            if (givenFileHash == null && currentFileHash != null) {
+                if ((splitPointCommit.tracked(file) != null
                             &&
                             (!currentFileHash.equals(
                             splitPointCommit.tracked(file))))) {
@@ -397,10 +913,10 @@ public class Repo implements Serializable {
                     continue;
                 }
                 if (currentFileHash.equals(splitPointCommit.tracked(file))) {
-                    if (!_stagingArea.tracked(file).equals("")) {
+                    if (_stagingArea.tracked(file) != null) {
                         toBeDeleted.add(file);
                     } else {
-                        if (!readFileHash(file).equals("")) {
+                        if (working.get(file) != null) {
                             throw new GitletException(
                                     "There is an untracked file in the way;"
                                     + " delete it or add it first.");
@@ -428,7 +944,7 @@ public class Repo implements Serializable {
     /** Merge another branch with current branch BRANCH. */
     public void merge(String branch) {
         checkMergeCondition(branch);
-        String splitPoint = getSplitPoint(branch);
+        ObjectId splitPoint = getSplitPoint(branch);
         Boolean meetConflict = false;
         Commit splitPointCommit = getCommit(splitPoint);
         Commit givenBranch = getCommit(_branches.get(branch));
@@ -441,15 +957,19 @@ public class Repo implements Serializable {
         }
         if (splitPoint.equals(_branches.get(branch))) {
             head = _branches.get(branch);
-            _branches.put(_currentBranch, head);
+            putBranch(_currentBranch, head);
             headCache = getCommit(head);
             throw new GitletException(
                     "Given branch is an ancestor of the current branch.");
         }
+        Set<String> candidates =
+            changes(splitPointCommit, givenBranch).keySet();
+        Map<String, ObjectId> working = readFileHashes(candidates);
         suoDuanMergeFangFa(givenBranch, currentBranch, splitPointCommit,
-                           toBeCheckedOut, conflictFile);
+                           candidates, toBeCheckedOut, conflictFile,
+                           working);
         suoDuanMergeFangFa2(givenBranch, currentBranch, splitPointCommit,
-                            toBeDeleted, conflictFile);
+                            candidates, toBeDeleted, conflictFile, working);
         for (String file : toBeCheckedOut) {
             revertFile(givenBranch.getHash(), file); addFile(file);
         }
@@ -461,17 +981,17 @@ public class Repo implements Serializable {
         }
         for (String file : conflictFile) {
             String first, second;
-            String givenFileHash = givenBranch.tracked(file);
-            String currentFileHash = currentBranch.tracked(file);
-            if (!currentFileHash.equals("")) {
-                first = Utils.readContentsAsString(
-                        Utils.join(objectFolder, currentFileHash));
+            ObjectId givenFileHash = givenBranch.tracked(file);
+            ObjectId currentFileHash = currentBranch.tracked(file);
+            if (currentFileHash != null) {
+                first = new String(_objects.read(currentFileHash),
+                                   StandardCharsets.UTF_8);
             } else {
                 first = "";
             }
-            if (!givenFileHash.equals("")) {
-                second = Utils.readContentsAsString(
-                        Utils.join(objectFolder, givenFileHash));
+            if (givenFileHash != null) {
+                second = new String(_objects.read(givenFileHash),
+                                    StandardCharsets.UTF_8);
             } else {
                 second = "";
             }
@@ -484,32 +1004,24 @@ public class Repo implements Serializable {
                     branch, _currentBranch), branch);
     }
 
-    /** Return split point of BRANCH with current branch. */
-    private String getSplitPoint(String branch) {
-        TreeSet<String> pathGivenBranch = new TreeSet<String>();
-        String first = _branches.get(branch);
-        while (!first.equals("")) {
-            Commit t = getCommit(first);
-            pathGivenBranch.add(first);
-            first = t.getParent();
-        }
-        first = _branches.get(_currentBranch);
-        while (!first.equals("")) {
-            Commit t = getCommit(first);
-            if (pathGivenBranch.contains(first)) {
-                return first;
-            }
-            first = t.getParent();
+    /** Return split point of BRANCH with current branch: the newest of
+     *  their best common ancestors, or null if they have none. */
+    private ObjectId getSplitPoint(String branch) {
+        CommitGraph graph = commitGraph();
+        List<Integer> bases = new MergeBase(graph).find(
+            graph.lookup(_branches.get(_currentBranch)),
+            graph.lookup(_branches.get(branch)));
+        if (bases.isEmpty()) {
+            return null;
         }
-        return "NOT FOUND";
-
+        return graph.id(bases.get(0));
     }
 
     /** Find commmit with specific message MESSAGE. */
     public void doFind(String message) {
         Boolean find = false;
-        for (HashMap.Entry<String, String> e : _commitToMessage.entrySet()) {
-            String c = e.getKey();
+        for (Map.Entry<ObjectId, String> e : _commitToMessage.entrySet()) {
+            ObjectId c = e.getKey();
             String m = e.getValue();
             if (m.equals(message)) {
                 System.out.println(c);
@@ -521,18 +1033,15 @@ public class Repo implements Serializable {
         }
     }
 
-    /** Convert short UID ID back to full length, return the result. */
-    public String changeBackShortID(String id) {
-        for (String s : commits) {
-            if (s.startsWith(id)) {
-                return s;
-            }
-        }
-        return "ARE YOU SURE ABOUT THAT!";
+    /** Convert short UID ID back to full length, return the result.
+     *  Throws a GitletException if no commit or several commits start
+     *  with ID. */
+    public ObjectId changeBackShortID(String id) {
+        return commitIds().resolve(id);
     }
 
     /** Return hash for a branch BRANCH. */
-    private String branch2hash(String branch) {
+    private ObjectId branch2hash(String branch) {
         return _branches.get(branch);
     }
 
@@ -542,89 +1051,277 @@ public class Repo implements Serializable {
      * Start remote part.
      * ******************
      */
-    /** Fetch the remote branch BRANCH from remote name NAME. */
-    public void fetchRemoteBranch(String name, String branch) {
+    /** Fetch the remote branch BRANCH from remote name NAME.  Only the
+     *  commits this repo lacks are fetched: the walk back from the remote
+     *  branch, through both parents, stops at commits already here.  Of
+     *  their trees and blobs, only those not already here are copied,
+     *  each once, on JOBS threads.  A remote named by a gitlet:// URL is
+     *  fetched from over the network (see Transport). */
+    public void fetchRemoteBranch(String name, String branch, int jobs) {
         File remoteDir = _remoteDir.get(name);
+        if (Transport.isUrl(remoteDir)) {
+            fetchOver(new Transport(remoteDir), name, branch);
+            return;
+        }
         if (!remoteDir.exists()) {
             throw new GitletException("Remote directory not found.");
         }
         File remoteObjectDir = remoteDir;
-        Repo remoteRepo =
-            Utils.readObject(Utils.join(remoteObjectDir, "REPO"), Repo.class);
-        String remoteBranchHead = remoteRepo.branch2hash(branch);
+        Repo remoteRepo = Repo.open(remoteObjectDir);
+        ObjectId remoteBranchHead = remoteRepo.branch2hash(branch);
         if (remoteBranchHead == null) {
             throw new GitletException("That remote does not have that branch.");
         }
-        String first = remoteRepo.branch2hash(branch);
-        while (!first.equals("")) {
-            byte[] fileContent =
-                Utils.readContents(Utils.join(remoteObjectDir, first));
-            File outputDir = Utils.join(objectFolder, first);
-            Utils.writeContents(outputDir, fileContent);
-            commits.add(first);
-            remoteRepo.moveAllBlobs(first, objectFolder);
-            first = remoteRepo.getCommit(first).getParent();
+        long start = System.nanoTime();
+        List<ObjectId> chain = remoteRepo.missingCommits(
+            List.of(remoteBranchHead), commitIds()::contains);
+        Map<ObjectId, Byte> missing =
+            remoteRepo.missingObjects(chain, _objects::contains);
+        long bytes = _objects.copyFrom(remoteRepo._objects, missing, jobs);
+        for (ObjectId first : chain) {
+            addCommit(readCommit(first), null);
         }
         String newBranchName = String.format("%s/%s", name, branch);
-        _branches.put(newBranchName, remoteBranchHead);
+        putBranch(newBranchName, remoteBranchHead);
+        transferStats("fetch", chain.size(), missing.size(), bytes, start);
     }
 
-    /** Pull the remote branch BRANCH from remote name NAME. */
-    public void pull(String name, String branch) {
-        fetchRemoteBranch(name, branch);
+    /** Fetch the branch BRANCH of remote NAME from REMOTE.  Every commit
+     *  here is offered as one the remote need not send. */
+    private void fetchOver(Transport remote, String name, String branch) {
+        long start = System.nanoTime();
+        try (Transport.Connection c = remote.connect(Transport.FETCH)) {
+            ObjectId remoteBranchHead = c.refs().get(branch);
+            if (remoteBranchHead == null) {
+                throw new GitletException(
+                    "That remote does not have that branch.");
+            }
+            List<ObjectId> wants = commitIds().contains(remoteBranchHead)
+                ? List.of() : List.of(remoteBranchHead);
+            List<ObjectId> chain = c.fetch(wants, commits, _objects);
+            for (ObjectId first : chain) {
+                addCommit(readCommit(first), null);
+            }
+            String newBranchName = String.format("%s/%s", name, branch);
+            putBranch(newBranchName, remoteBranchHead);
+            transferStats("fetch", chain.size(), -1, c.bytesRead(), start);
+        }
+    }
+
+    /** Pull the remote branch BRANCH from remote name NAME, copying
+     *  objects on JOBS threads. */
+    public void pull(String name, String branch, int jobs) {
+        fetchRemoteBranch(name, branch, jobs);
         String newBranchName = String.format("%s/%s", name, branch);
         merge(newBranchName);
     }
 
-    /** Push the current branch into remote BRANCH in NAME. */
+    /** Push the current branch into remote BRANCH in NAME.  The objects
+     *  the remote lacks are found by walking the trees of the new commits,
+     *  skipping directories the remote already has, and are sent as one
+     *  pack.  Only the remote branch moves; the remote's working files
+     *  are updated, where they differ, only if BRANCH is checked out
+     *  there.  The remote's lock is held throughout.  A remote named by a
+     *  gitlet:// URL is pushed to over the network (see Transport). */
     public void push(String name, String branch) {
         File remoteDir = _remoteDir.get(name);
+        if (Transport.isUrl(remoteDir)) {
+            pushOver(new Transport(remoteDir), branch);
+            return;
+        }
         if (!remoteDir.exists()) {
             throw new GitletException("Remote directory not found.");
         }
         File remoteObjectDir = Utils.join(remoteDir);
-        Repo remoteRepo
-            = Utils.readObject(Utils.join(remoteObjectDir, "REPO"), Repo.class);
-        String remoteBranchHead = remoteRepo.branch2hash(branch);
-        String first = _branches.get(_currentBranch);
-        TreeSet<String> diffCommits = new TreeSet<String>();
-        Boolean b = false;
-        while (!first.equals("")) {
-            diffCommits.add(first);
-            if (first.equals(remoteBranchHead)) {
-                b = true;
-                break;
-            }
-            first = getCommit(first).getParent();
-        }
-        if (!b) {
-            throw
-                new GitletException(
-                        " Please pull down remote changes before pushing.");
+        RepoLock lock = RepoLock.acquire(remoteObjectDir);
+        try {
+            Repo remoteRepo = Repo.open(remoteObjectDir);
+            ObjectId remoteBranchHead = remoteRepo.branch2hash(branch);
+            List<ObjectId> diffCommits = commitsSince(remoteBranchHead);
+            long start = System.nanoTime();
+            Map<ObjectId, Byte> missing =
+                missingObjects(diffCommits, remoteRepo._objects::contains);
+            long bytes = remoteRepo._objects.receive(_objects, missing);
+            remoteRepo.acceptPush(branch, remoteBranchHead, head,
+                                  diffCommits);
+            remoteRepo.save();
+            transferStats("push", diffCommits.size(), missing.size(), bytes,
+                          start);
+        } finally {
+            lock.close();
         }
-        for (String commit : diffCommits) {
-            byte[] fileContent =
-                Utils.readContents(Utils.join(objectFolder, commit));
-            File outputDir = Utils.join(remoteObjectDir, commit);
-            Utils.writeContents(outputDir, fileContent);
-            moveAllBlobs(commit, remoteObjectDir);
-            remoteRepo.commits.add(commit);
+    }
+
+    /** Push the current branch into BRANCH of REMOTE.  The remote has
+     *  everything under its head, so only objects not under that are
+     *  sent. */
+    private void pushOver(Transport remote, String branch) {
+        long start = System.nanoTime();
+        try (Transport.Connection c = remote.connect(Transport.PUSH)) {
+            ObjectId remoteBranchHead = c.refs().get(branch);
+            List<ObjectId> diffCommits = commitsSince(remoteBranchHead);
+            Set<ObjectId> known = objectsOf(List.of(remoteBranchHead));
+            Map<ObjectId, Byte> missing =
+                missingObjects(diffCommits, known::contains);
+            c.push(branch, remoteBranchHead, head, diffCommits, _objects,
+                   missing);
+            transferStats("push", diffCommits.size(), missing.size(),
+                          c.bytesWritten(), start);
         }
-        remoteRepo.dangerousReset(_branches.get(_currentBranch));
-        Utils.writeObject(Utils.join(remoteObjectDir, "REPO"), remoteRepo);
     }
 
-    /** Move all blobs involved in current repo's COMMIT
-     *  to another folder OUTPUTDIR. */
-    private void moveAllBlobs(String commit, File outputDir) {
-        Commit cache = getCommit(commit);
-        File absObjectFolder = Utils.join(absPath, ".gitlet");
-        for (String file : cache.getKeys()) {
-            String hash = cache.tracked(file);
-            byte[] fileContent
-                = Utils.readContents(Utils.join(absObjectFolder, hash));
-            Utils.writeContents(Utils.join(outputDir, hash), fileContent);
+    /** Return the commits after BASE on the first-parent chain of the
+     *  head, parents first.  BASE must be on that chain. */
+    private List<ObjectId> commitsSince(ObjectId base) {
+        CommitGraph graph = commitGraph();
+        ArrayList<ObjectId> result = new ArrayList<ObjectId>();
+        for (int pos = graph.lookup(head); pos != CommitGraph.NONE;
+             pos = graph.parent(pos)) {
+            ObjectId id = graph.id(pos);
+            if (id.equals(base)) {
+                Collections.reverse(result);
+                return result;
+            }
+            result.add(id);
+        }
+        throw new GitletException(
+            " Please pull down remote changes before pushing.");
+    }
+
+    /** Take in PUSHED, commits whose objects are already stored, to move
+     *  BRANCH from OLD to NEWHEAD.  The working files are updated, where
+     *  they differ, only if BRANCH is checked out. */
+    void acceptPush(String branch, ObjectId old, ObjectId newHead,
+                    List<ObjectId> pushed) {
+        if (old == null || !old.equals(_branches.get(branch))) {
+            throw new GitletException(
+                " Please pull down remote changes before pushing.");
+        }
+        for (ObjectId commit : pushed) {
+            addCommit(readCommit(commit), null);
+        }
+        if (branch.equals(_currentBranch)) {
+            dangerousReset(newHead);
+        } else {
+            putBranch(branch, getCommit(newHead).getHash());
+        }
+    }
+
+    /** Return the branches, by name. */
+    Map<String, ObjectId> branches() {
+        return Collections.unmodifiableMap(_branches);
+    }
+
+    /** Return the objects of this repo. */
+    ObjectStore objects() {
+        return _objects;
+    }
+
+    /** Return the commits reachable from HEADS, through both parents,
+     *  that are not KNOWN, parents first.  The walk stops at known
+     *  commits. */
+    List<ObjectId> missingCommits(Collection<ObjectId> heads,
+                                  Predicate<ObjectId> known) {
+        CommitGraph graph = commitGraph();
+        ArrayList<Integer> wanted = new ArrayList<Integer>();
+        HashSet<Integer> seen = new HashSet<Integer>();
+        ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+        for (ObjectId id : heads) {
+            work.push(graph.lookup(id));
+        }
+        while (!work.isEmpty()) {
+            int pos = work.pop();
+            if (pos == CommitGraph.NONE || !seen.add(pos)
+                || known.test(graph.id(pos))) {
+                continue;
+            }
+            wanted.add(pos);
+            work.push(graph.parent(pos));
+            work.push(graph.coparent(pos));
         }
+        wanted.sort(Comparator.comparingInt(graph::generation));
+        ArrayList<ObjectId> result = new ArrayList<ObjectId>();
+        for (int pos : wanted) {
+            result.add(graph.id(pos));
+        }
+        return result;
+    }
+
+    /** Return the IDs of COMMITS, and of all the trees and blobs in them. */
+    Set<ObjectId> objectsOf(Collection<ObjectId> commits) {
+        HashSet<ObjectId> result = new HashSet<ObjectId>();
+        for (ObjectId c : commits) {
+            Commit commit = getCommit(c);
+            result.add(c);
+            if (commit.getRoot() != null) {
+                Tree.objects(_objects, commit.getRoot(), result);
+            } else {
+                result.addAll(commit.getTree().values());
+            }
+        }
+        return result;
+    }
+
+    /** Return the objects of COMMITS, which are ordered parents first,
+     *  that are not KNOWN, each mapped to its type: the commits and their
+     *  trees and blobs.  Each object is listed once, and after all it
+     *  refers to, so that copying them in order never leaves an object
+     *  whose references are missing. */
+    Map<ObjectId, Byte> missingObjects(List<ObjectId> commits,
+                                       Predicate<ObjectId> known) {
+        LinkedHashMap<ObjectId, Byte> result =
+            new LinkedHashMap<ObjectId, Byte>();
+        for (ObjectId c : commits) {
+            Commit commit = getCommit(c);
+            if (commit.getRoot() != null) {
+                Tree.missing(_objects, known, commit.getRoot(), result);
+            } else {
+                for (ObjectId blob : commit.getTree().values()) {
+                    if (!result.containsKey(blob) && !known.test(blob)) {
+                        result.put(blob, ObjectStore.BLOB);
+                    }
+                }
+            }
+            if (!known.test(c)) {
+                result.put(c, ObjectStore.COMMIT);
+            }
+        }
+        return result;
+    }
+
+    /** Report the transfer of COMMITS commits and OBJECTS objects, or an
+     *  unknown number if that is negative, and BYTES bytes of object data,
+     *  by the operation WHAT, which started at START nanoseconds. */
+    private static void transferStats(String what, int commits, int objects,
+                                      long bytes, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Utils.stats("%s: %d commits, %s objects, %d bytes in %.1f ms"
+                    + " (%.1f MB/s)", what, commits,
+                    objects < 0 ? "?" : Integer.toString(objects), bytes,
+                    seconds * 1e3, bytes / 1e6 / seconds);
+    }
+
+    /** Return the files whose blobs differ between commits A and B, each
+     *  mapped to its blob IDs in A and in B, null where it is missing.
+     *  Directories the two share are skipped without being read. */
+    private Map<String, ObjectId[]> changes(Commit a, Commit b) {
+        TreeMap<String, ObjectId[]> result = new TreeMap<String, ObjectId[]>();
+        if (a.getRoot() != null && b.getRoot() != null) {
+            Tree.diff(_objects, a.getRoot(), b.getRoot(), "", result);
+            return result;
+        }
+        for (Map.Entry<String, ObjectId> e : b.getTree().entrySet()) {
+            ObjectId old = a.tracked(e.getKey());
+            if (!e.getValue().equals(old)) {
+                result.put(e.getKey(), new ObjectId[] {old, e.getValue()});
+            }
+        }
+        for (Map.Entry<String, ObjectId> e : a.getTree().entrySet()) {
+            if (b.tracked(e.getKey()) == null) {
+                result.put(e.getKey(), new ObjectId[] {e.getValue(), null});
+            }
+        }
+        return result;
     }
 
     /** Add a remote with path FILE, name NAME. */
@@ -634,6 +1331,7 @@ public class Repo implements Serializable {
                 new GitletException("A remote with that name already exists.");
         }
         _remoteDir.put(name, file);
+        _store.record(MetaStore.REMOTE, name, file.getPath());
     }
 
     /** Remove remote NAME. */
@@ -643,31 +1341,83 @@ public class Repo implements Serializable {
                 new GitletException("A remote with that name does not exist.");
         }
         _remoteDir.remove(name);
+        _store.record(MetaStore.RM_REMOTE, name);
     }
 
 
 
+    /** Repos written as a single serialized file kept every ID as a
+     *  hex String; these are the fields they were written with. */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("commits", List.class),
+        new ObjectStreamField("_stagingArea", Index.class),
+        new ObjectStreamField("head", String.class),
+        new ObjectStreamField("headCache", Commit.class),
+        new ObjectStreamField("_branches", TreeMap.class),
+        new ObjectStreamField("_currentBranch", String.class),
+        new ObjectStreamField("_commitToMessage", TreeMap.class),
+        new ObjectStreamField("_remoteDir", TreeMap.class),
+    };
+
+    /** Read a repo written as a single serialized file from IN. */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        commits = new ArrayList<ObjectId>();
+        for (Object c : (List<?>) fields.get("commits", null)) {
+            commits.add(ObjectId.fromHex((String) c));
+        }
+        _stagingArea = (Index) fields.get("_stagingArea", null);
+        head = ObjectId.fromHex((String) fields.get("head", null));
+        headCache = (Commit) fields.get("headCache", null);
+        _branches = new TreeMap<String, ObjectId>();
+        for (Map.Entry<?, ?> e
+                 : ((Map<?, ?>) fields.get("_branches", null)).entrySet()) {
+            _branches.put((String) e.getKey(),
+                          ObjectId.fromHex((String) e.getValue()));
+        }
+        _currentBranch = (String) fields.get("_currentBranch", null);
+        _commitToMessage = new TreeMap<ObjectId, String>();
+        for (Map.Entry<?, ?> e : ((Map<?, ?>) fields.get("_commitToMessage",
+                                                         null)).entrySet()) {
+            _commitToMessage.put(ObjectId.fromHex((String) e.getKey()),
+                                 (String) e.getValue());
+        }
+        _remoteDir = (TreeMap<String, File>) fields.get("_remoteDir", null);
+    }
+
+    /** Kept so that repos written as a single serialized file can still
+     *  be read. */
+    private static final long serialVersionUID = -4683938594741797513L;
+
     /** Store the current working folder. */
-    private File curDir;
+    private transient File curDir;
     /** Store the folder for objects. */
-    private File objectFolder;
+    private transient File objectFolder;
+    /** Where the metadata below is kept. */
+    private transient MetaStore _store;
+    /** Where blobs and commits are kept. */
+    private transient ObjectStore _objects;
+    /** Parent links of the commits, opened on first use. */
+    private transient CommitGraph _graph;
+    /** Index of the IDs in commits, built on first use. */
+    private transient ObjectIdIndex _commitIds;
     /** Store all the commits in this folder, store the hash. */
-    private List<String> commits;
+    private List<ObjectId> commits;
     /** Current Staging Area. */
     private Index _stagingArea;
     /** Newest commit. */
-    private String head;
+    private ObjectId head;
     /** Cache for the head commit. */
     private Commit headCache;
     /** Branches. name to hash. */
-    private TreeMap<String, String> _branches;
+    private TreeMap<String, ObjectId> _branches;
     /** Current branch name. */
     private String _currentBranch;
     /** Store commit-message pair. */
-    private TreeMap<String, String> _commitToMessage;
+    private TreeMap<ObjectId, String> _commitToMessage;
     /** Store remote dir. */
     private TreeMap<String, File> _remoteDir;
-    /** Store absoloute path. */
-    private File absPath = new File(System.getProperty("user.dir"));
 
 }
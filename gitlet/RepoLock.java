@@ -0,0 +1,86 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The lock on a repository, held while a command reads and writes it so
+ * that other processes, such as a second command, the daemon or a server
+ * taking a push, see it either before or after.  It is an exclusive lock
+ * on the file lock in the repository directory, which the system drops if
+ * the process dies.  A process may take the lock on a repository it
+ * already holds, as a fetch from or push to itself does.
+ *  @author XiWang */
+
+public class RepoLock implements AutoCloseable {
+
+    /** Wait for and take the lock on the repository in OBJECTDIR. */
+    static RepoLock acquire(File objectDir) {
+        String key;
+        try {
+            key = objectDir.getCanonicalPath();
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        synchronized (HELD) {
+            RepoLock lock = HELD.get(key);
+            if (lock == null) {
+                lock = new RepoLock(key, Utils.join(objectDir, "lock"));
+                HELD.put(key, lock);
+            }
+            lock._count += 1;
+            return lock;
+        }
+    }
+
+    /** A lock, held by the process, on FILE, the lock of the repository
+     *  KEY. */
+    private RepoLock(String key, File file) {
+        _key = key;
+        try {
+            _channel = FileChannel.open(file.toPath(),
+                                        StandardOpenOption.CREATE,
+                                        StandardOpenOption.WRITE);
+            _lock = _channel.lock();
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /** Give up this hold on the lock, releasing it after the last. */
+    @Override
+    public void close() {
+        synchronized (HELD) {
+            _count -= 1;
+            if (_count > 0) {
+                return;
+            }
+            HELD.remove(_key);
+            try {
+                _lock.release();
+                _channel.close();
+            } catch (IOException excp) {
+                throw new GitletException(excp.getMessage());
+            }
+        }
+    }
+
+    /** The locks this process holds, by canonical repository path. */
+    private static final Map<String, RepoLock> HELD =
+        new HashMap<String, RepoLock>();
+
+    /** Canonical path of the repository. */
+    private final String _key;
+    /** The open lock file. */
+    private final FileChannel _channel;
+    /** The lock on it. */
+    private final FileLock _lock;
+    /** Holds taken and not yet given up. */
+    private int _count;
+
+}
@@ -0,0 +1,399 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Fetch and push over the network, to a remote named by a URL of the
+ * form gitlet://HOST:PORT/PATH, and the server that answers them.  The
+ * server serves the repositories under the directory it was started in,
+ * PATH naming a .gitlet directory below that.  A connection carries one
+ * request: the client names the repository and the service, and the
+ * server advertises its branches.  To fetch, the client then sends the
+ * heads it wants and the commits it has, in one go, and the server
+ * answers with the commits the client lacks and a stream of their
+ * objects (see ObjectStore.sendPack).  To push, the client sends the
+ * branch to move, its old and new heads, the new commits and a stream of
+ * their objects, again in one go, and the server answers whether it took
+ * them.  Requests are served one at a time, so a client that stops
+ * sending is dropped after TIMEOUT.  As pushes are not authenticated,
+ * the server listens only on the loopback interface unless told to
+ * listen on another address.
+ *  @author XiWang */
+
+public class Transport {
+
+    /** Start of a remote URL. */
+    static final String SCHEME = "gitlet:";
+    /** Port used when a URL or the server names none. */
+    static final int DEFAULT_PORT = 9418;
+    /** Highest TCP port number. */
+    static final int MAX_PORT = 65535;
+    /** Service that sends commits to the client. */
+    static final String FETCH = "fetch";
+    /** Service that takes commits from the client. */
+    static final String PUSH = "push";
+
+    /** Milliseconds a connection may wait for the other side to send. */
+    static final int TIMEOUT =
+        Integer.getInteger("gitlet.serve.timeout", 30000);
+    /** Most IDs or branches sent in one list. */
+    private static final int MAX_COUNT = 1 << 22;
+
+    /** Marks the start of a request. */
+    private static final int MAGIC = 0x474c4e54;
+    /** Version of the protocol. */
+    private static final int VERSION = 1;
+    /** Status byte of a step that succeeded. */
+    private static final byte OK = 0;
+    /** Status byte of a step that failed, followed by a message. */
+    private static final byte FAILED = 1;
+    /** A remote URL.  Kept as a File, it may have lost a slash. */
+    private static final Pattern URL =
+        Pattern.compile("gitlet:/+([^/:]+)(?::([0-9]{1,5}))?(/.*)");
+
+    /** Return true if LOCATION, where a remote was said to be, is a
+     *  gitlet:// URL. */
+    static boolean isUrl(File location) {
+        return location != null && location.getPath().startsWith(SCHEME);
+    }
+
+    /** A transport to the remote at URL LOCATION. */
+    Transport(File location) {
+        Matcher m = URL.matcher(location.getPath());
+        if (!m.matches()) {
+            throw new GitletException("Bad remote URL.");
+        }
+        _host = m.group(1);
+        _port = m.group(2) == null ? DEFAULT_PORT
+            : Integer.parseInt(m.group(2));
+        if (_port < 1 || _port > MAX_PORT) {
+            throw new GitletException("Bad remote URL.");
+        }
+        _path = m.group(3);
+    }
+
+    /** Return a new connection for SERVICE, once the remote's branches
+     *  have been read from it. */
+    Connection connect(String service) {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(_host, _port), TIMEOUT);
+            socket.setSoTimeout(TIMEOUT);
+        } catch (IOException excp) {
+            close(socket);
+            throw new GitletException("Cannot reach remote " + _host + ":"
+                                      + _port + ".");
+        }
+        try {
+            return new Connection(socket, service);
+        } catch (IOException excp) {
+            close(socket);
+            throw new GitletException("Lost connection to the remote.");
+        } catch (GitletException excp) {
+            close(socket);
+            throw excp;
+        }
+    }
+
+    /** One request to the remote. */
+    class Connection implements AutoCloseable {
+        /** A request for SERVICE over SOCKET. */
+        private Connection(Socket socket, String service) throws IOException {
+            _socket = socket;
+            socket.setTcpNoDelay(true);
+            _in = new DataInputStream(new BufferedInputStream(
+                socket.getInputStream(), Blob.BUFFER_SIZE));
+            _out = new DataOutputStream(new BufferedOutputStream(
+                socket.getOutputStream(), Blob.BUFFER_SIZE));
+            _out.writeInt(MAGIC);
+            _out.writeInt(VERSION);
+            _out.writeUTF(_path);
+            _out.writeUTF(service);
+            _out.flush();
+            status(_in);
+            _refs = new TreeMap<String, ObjectId>();
+            for (int n = readCount(_in); n > 0; n -= 1) {
+                String name = _in.readUTF();
+                _refs.put(name, readId(_in));
+            }
+        }
+
+        /** Return the remote's branches, by name. */
+        Map<String, ObjectId> refs() {
+            return _refs;
+        }
+
+        /** Fetch the commits reachable from WANTS that are not reachable
+         *  from HAVES, storing their objects in STORE, and return them,
+         *  parents first. */
+        List<ObjectId> fetch(List<ObjectId> wants, Collection<ObjectId> haves,
+                             ObjectStore store) {
+            try {
+                writeIds(_out, wants);
+                writeIds(_out, haves);
+                _out.flush();
+                status(_in);
+                List<ObjectId> result = readIds(_in);
+                _bytesRead = store.receivePack(_in);
+                return result;
+            } catch (IOException excp) {
+                throw new GitletException("Lost connection to the remote.");
+            }
+        }
+
+        /** Move the remote's BRANCH from OLD to NEWHEAD, sending COMMITS,
+         *  parents first, and OBJECTS of STORE, each mapped to its
+         *  type. */
+        void push(String branch, ObjectId old, ObjectId newHead,
+                  List<ObjectId> commits, ObjectStore store,
+                  Map<ObjectId, Byte> objects) {
+            try {
+                _out.writeUTF(branch);
+                _out.write(old.toBytes());
+                _out.write(newHead.toBytes());
+                writeIds(_out, commits);
+                _bytesWritten = store.sendPack(objects, _out);
+                _out.flush();
+                status(_in);
+            } catch (IOException excp) {
+                throw new GitletException("Lost connection to the remote.");
+            }
+        }
+
+        /** Return the bytes of object data fetched. */
+        long bytesRead() {
+            return _bytesRead;
+        }
+
+        /** Return the bytes of object data pushed. */
+        long bytesWritten() {
+            return _bytesWritten;
+        }
+
+        @Override
+        public void close() {
+            Transport.close(_socket);
+        }
+
+        /** The connection to the remote. */
+        private final Socket _socket;
+        /** Input from the remote. */
+        private final DataInputStream _in;
+        /** Output to the remote. */
+        private final DataOutputStream _out;
+        /** The remote's branches. */
+        private final TreeMap<String, ObjectId> _refs;
+        /** Bytes of object data fetched. */
+        private long _bytesRead;
+        /** Bytes of object data pushed. */
+        private long _bytesWritten;
+    }
+
+    /** Serve the repositories under ROOT on PORT of ADDRESS until
+     *  killed.  ADDRESS is the loopback interface if it is null.  A
+     *  request that fails is reported and dropped, and the server goes
+     *  on to the next. */
+    static void serve(File root, String address, int port) {
+        try (ServerSocket server = new ServerSocket()) {
+            InetAddress host = address == null
+                ? InetAddress.getLoopbackAddress()
+                : InetAddress.getByName(address);
+            server.bind(new InetSocketAddress(host, port));
+            while (true) {
+                try (Socket client = server.accept()) {
+                    client.setTcpNoDelay(true);
+                    client.setSoTimeout(TIMEOUT);
+                    answer(root, client);
+                } catch (IOException | RuntimeException excp) {
+                    System.err.println("gitlet serve: " + excp);
+                }
+            }
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /** Answer the request from CLIENT for a repository under ROOT,
+     *  holding the repository's lock, as local commands do, so that a
+     *  push is not mixed with their changes. */
+    private static void answer(File root, Socket client) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            client.getInputStream(), Blob.BUFFER_SIZE));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            client.getOutputStream(), Blob.BUFFER_SIZE));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new GitletException("Unsupported protocol.");
+            }
+            String path = in.readUTF();
+            String service = in.readUTF();
+            if (!service.equals(FETCH) && !service.equals(PUSH)) {
+                throw new GitletException("Unknown service " + service + ".");
+            }
+            File dir = resolve(root, path);
+            RepoLock lock = RepoLock.acquire(dir);
+            try {
+                Repo repo = Repo.open(dir);
+                out.writeByte(OK);
+                Map<String, ObjectId> refs = repo.branches();
+                out.writeInt(refs.size());
+                for (Map.Entry<String, ObjectId> e : refs.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.write(e.getValue().toBytes());
+                }
+                out.flush();
+                if (service.equals(FETCH)) {
+                    upload(repo, in, out);
+                } else {
+                    receive(repo, in, out);
+                }
+            } finally {
+                lock.close();
+            }
+        } catch (GitletException excp) {
+            out.writeByte(FAILED);
+            out.writeUTF(excp.getMessage());
+        }
+        out.flush();
+    }
+
+    /** Answer a fetch from REPO, reading the request from IN and writing
+     *  the answer to OUT.  Objects under the client's commits that the
+     *  ones sent build on are not sent. */
+    private static void upload(Repo repo, DataInputStream in,
+                               DataOutputStream out) throws IOException {
+        long start = System.nanoTime();
+        List<ObjectId> wants = readIds(in);
+        Set<ObjectId> haves = new HashSet<ObjectId>(readIds(in));
+        List<ObjectId> chain = repo.missingCommits(wants, haves::contains);
+        Set<ObjectId> bases = new HashSet<ObjectId>();
+        for (ObjectId c : chain) {
+            Commit commit = repo.getCommit(c);
+            for (ObjectId parent
+                     : new ObjectId[] {commit.getParent(),
+                                       commit.getCoParent()}) {
+                if (parent != null && haves.contains(parent)) {
+                    bases.add(parent);
+                }
+            }
+        }
+        Set<ObjectId> known = repo.objectsOf(bases);
+        Map<ObjectId, Byte> objects =
+            repo.missingObjects(chain, known::contains);
+        out.writeByte(OK);
+        writeIds(out, chain);
+        long bytes = repo.objects().sendPack(objects, out);
+        Utils.stats("served fetch: %d commits, %d objects, %d bytes"
+                    + " in %.1f ms", chain.size(), objects.size(), bytes,
+                    (System.nanoTime() - start) / 1e6);
+    }
+
+    /** Answer a push to REPO, reading the request from IN and writing the
+     *  answer to OUT. */
+    private static void receive(Repo repo, DataInputStream in,
+                                DataOutputStream out) throws IOException {
+        long start = System.nanoTime();
+        String branch = in.readUTF();
+        ObjectId old = readId(in);
+        ObjectId newHead = readId(in);
+        List<ObjectId> commits = readIds(in);
+        long bytes = repo.objects().receivePack(in);
+        repo.acceptPush(branch, old, newHead, commits);
+        repo.save();
+        out.writeByte(OK);
+        Utils.stats("served push: %d commits, %d bytes in %.1f ms",
+                    commits.size(), bytes,
+                    (System.nanoTime() - start) / 1e6);
+    }
+
+    /** Return the repository directory PATH names under ROOT. */
+    private static File resolve(File root, String path) throws IOException {
+        File base = root.getCanonicalFile();
+        File dir = new File(base, path).getCanonicalFile();
+        if (!dir.toPath().startsWith(base.toPath()) || !Repo.exists(dir)) {
+            throw new GitletException("Remote directory not found.");
+        }
+        return dir;
+    }
+
+    /** Read a status byte from IN, and throw the message that follows it
+     *  if it says the step failed. */
+    private static void status(DataInputStream in) throws IOException {
+        if (in.readByte() != OK) {
+            throw new GitletException(in.readUTF());
+        }
+    }
+
+    /** Write IDS to OUT, preceded by their number. */
+    private static void writeIds(DataOutputStream out,
+                                 Collection<ObjectId> ids)
+        throws IOException {
+        out.writeInt(ids.size());
+        for (ObjectId id : ids) {
+            out.write(id.toBytes());
+        }
+    }
+
+    /** Return the IDs written to IN by writeIds. */
+    private static List<ObjectId> readIds(DataInputStream in)
+        throws IOException {
+        int n = readCount(in);
+        List<ObjectId> result = new ArrayList<ObjectId>(n);
+        for (int i = 0; i < n; i += 1) {
+            result.add(readId(in));
+        }
+        return result;
+    }
+
+    /** Return a count of list entries read from IN, checking that it is
+     *  sensible. */
+    private static int readCount(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || n > MAX_COUNT) {
+            throw new GitletException("Malformed request.");
+        }
+        return n;
+    }
+
+    /** Return the ID read from IN. */
+    private static ObjectId readId(DataInputStream in) throws IOException {
+        byte[] id = new byte[ObjectId.LENGTH];
+        in.readFully(id);
+        return ObjectId.fromBytes(id);
+    }
+
+    /** Close SOCKET, ignoring any error. */
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** The remote's host. */
+    private final String _host;
+    /** The port it serves on. */
+    private final int _port;
+    /** Its .gitlet directory, under the directory it serves. */
+    private final String _path;
+
+}
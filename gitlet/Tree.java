@@ -0,0 +1,237 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * One directory of a commit: the files directly in it, by name and blob
+ * ID, and the directories in it, by name and tree ID.  A tree is stored
+ * as an object of its own, named by the hash of its contents, so a
+ * directory that is the same in two commits is stored once, and two
+ * commits can be compared without looking inside the directories they
+ * share.  A stored tree lists its files and then its directories, each
+ * in name order, each as a kind byte, the name, and the ID.
+ *  @author XiWang */
+
+public class Tree {
+
+    /** Kind byte of a file entry. */
+    private static final byte FILE = 0;
+    /** Kind byte of a directory entry. */
+    private static final byte DIR = 1;
+
+    /** An empty tree. */
+    Tree() {
+        _files = new TreeMap<String, ObjectId>();
+        _dirs = new TreeMap<String, ObjectId>();
+    }
+
+    /** Return the tree stored as CONTENTS. */
+    static Tree fromBytes(byte[] contents) {
+        Tree result = new Tree();
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(contents));
+        byte[] id = new byte[ObjectId.LENGTH];
+        try {
+            while (in.available() > 0) {
+                byte kind = in.readByte();
+                String name = in.readUTF();
+                in.readFully(id);
+                if (kind == FILE) {
+                    result._files.put(name, ObjectId.fromBytes(id));
+                } else if (kind == DIR) {
+                    result._dirs.put(name, ObjectId.fromBytes(id));
+                } else {
+                    throw new GitletException("Corrupt tree.");
+                }
+            }
+        } catch (IOException excp) {
+            throw new GitletException("Corrupt tree.");
+        }
+        return result;
+    }
+
+    /** Return the stored form of this tree. */
+    byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (Map.Entry<String, ObjectId> e : _files.entrySet()) {
+                out.writeByte(FILE);
+                out.writeUTF(e.getKey());
+                out.write(e.getValue().toBytes());
+            }
+            for (Map.Entry<String, ObjectId> e : _dirs.entrySet()) {
+                out.writeByte(DIR);
+                out.writeUTF(e.getKey());
+                out.write(e.getValue().toBytes());
+            }
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the files directly in this tree, by name. */
+    Map<String, ObjectId> files() {
+        return _files;
+    }
+
+    /** Return the directories directly in this tree, by name. */
+    Map<String, ObjectId> dirs() {
+        return _dirs;
+    }
+
+    /** Return the tree stored as object ID in STORE. */
+    static Tree read(ObjectStore store, ObjectId id) {
+        return fromBytes(store.read(id));
+    }
+
+    /** Store the trees of FILES, a map from '/'-separated paths to blob
+     *  IDs, in STORE, and return the ID of the top one.  Trees already
+     *  stored are not written again. */
+    static ObjectId write(ObjectStore store, Map<String, ObjectId> files) {
+        Node top = new Node();
+        for (Map.Entry<String, ObjectId> e : files.entrySet()) {
+            Node node = top;
+            String[] parts = e.getKey().split("/");
+            for (int i = 0; i < parts.length - 1; i += 1) {
+                node = node.dirs.computeIfAbsent(parts[i], k -> new Node());
+            }
+            node.tree._files.put(parts[parts.length - 1], e.getValue());
+        }
+        return top.write(store);
+    }
+
+    /** Add the files under tree ID in STORE to RESULT, by path, each
+     *  path starting with PREFIX. */
+    static void flatten(ObjectStore store, ObjectId id, String prefix,
+                        Map<String, ObjectId> result) {
+        Tree tree = read(store, id);
+        for (Map.Entry<String, ObjectId> e : tree._files.entrySet()) {
+            result.put(prefix + e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, ObjectId> e : tree._dirs.entrySet()) {
+            flatten(store, e.getValue(), prefix + e.getKey() + "/", result);
+        }
+    }
+
+    /** Add each file whose blob differs between trees A and B of STORE
+     *  to RESULT, by path starting with PREFIX, mapped to its blob IDs
+     *  in A and in B, either of which is null if it is missing there.  A
+     *  or B may be null, for an empty tree.  Directories with the same ID
+     *  in both are not read. */
+    static void diff(ObjectStore store, ObjectId a, ObjectId b,
+                     String prefix, Map<String, ObjectId[]> result) {
+        if (a != null && a.equals(b)) {
+            return;
+        }
+        Tree ta = a == null ? new Tree() : read(store, a);
+        Tree tb = b == null ? new Tree() : read(store, b);
+        TreeMap<String, ObjectId> files =
+            new TreeMap<String, ObjectId>(ta._files);
+        for (Map.Entry<String, ObjectId> e : tb._files.entrySet()) {
+            ObjectId old = files.remove(e.getKey());
+            if (!e.getValue().equals(old)) {
+                result.put(prefix + e.getKey(),
+                           new ObjectId[] {old, e.getValue()});
+            }
+        }
+        for (Map.Entry<String, ObjectId> e : files.entrySet()) {
+            result.put(prefix + e.getKey(),
+                       new ObjectId[] {e.getValue(), null});
+        }
+        TreeMap<String, ObjectId> dirs =
+            new TreeMap<String, ObjectId>(ta._dirs);
+        for (Map.Entry<String, ObjectId> e : tb._dirs.entrySet()) {
+            diff(store, dirs.remove(e.getKey()), e.getValue(),
+                 prefix + e.getKey() + "/", result);
+        }
+        for (Map.Entry<String, ObjectId> e : dirs.entrySet()) {
+            diff(store, e.getValue(), null, prefix + e.getKey() + "/",
+                 result);
+        }
+    }
+
+    /** Add to RESULT, mapped to their types, tree ID of SOURCE and all
+     *  the trees and blobs under it that are not KNOWN and that RESULT
+     *  does not hold already, each after all it holds.  A known tree is
+     *  not looked into, as everything under it must be known too. */
+    static void missing(ObjectStore source, Predicate<ObjectId> known,
+                        ObjectId id, Map<ObjectId, Byte> result) {
+        if (result.containsKey(id) || known.test(id)) {
+            return;
+        }
+        Tree tree = read(source, id);
+        for (ObjectId blob : tree._files.values()) {
+            if (!result.containsKey(blob) && !known.test(blob)) {
+                result.put(blob, ObjectStore.BLOB);
+            }
+        }
+        for (ObjectId dir : tree._dirs.values()) {
+            missing(source, known, dir, result);
+        }
+        result.put(id, ObjectStore.TREE);
+    }
+
+    /** Add the IDs of tree ID of STORE and of all the trees and blobs
+     *  under it to RESULT.  Trees already in RESULT are not read. */
+    static void objects(ObjectStore store, ObjectId id, Set<ObjectId> result) {
+        if (!result.add(id)) {
+            return;
+        }
+        Tree tree = read(store, id);
+        result.addAll(tree._files.values());
+        for (ObjectId dir : tree._dirs.values()) {
+            objects(store, dir, result);
+        }
+    }
+
+    /** Add the IDs of tree ID of STORE and all trees under it, other
+     *  than those under trees already in RESULT, to RESULT, parents
+     *  first. */
+    static void collect(ObjectStore store, ObjectId id,
+                        Map<ObjectId, Byte> result) {
+        if (result.putIfAbsent(id, ObjectStore.TREE) != null) {
+            return;
+        }
+        for (ObjectId dir : read(store, id)._dirs.values()) {
+            collect(store, dir, result);
+        }
+    }
+
+    /** A directory whose tree is being built. */
+    private static class Node {
+        /** Write the trees of this directory and those in it to STORE,
+         *  and return the ID of this one. */
+        ObjectId write(ObjectStore store) {
+            for (Map.Entry<String, Node> e : dirs.entrySet()) {
+                tree._dirs.put(e.getKey(), e.getValue().write(store));
+            }
+            byte[] contents = tree.toBytes();
+            MessageDigest md = Blob.sha1();
+            ObjectId id = ObjectId.fromBytes(md.digest(contents));
+            store.write(id, ObjectStore.TREE, contents);
+            return id;
+        }
+
+        /** The files in this directory, and later its directories. */
+        final Tree tree = new Tree();
+        /** Directories in this directory still to be written. */
+        final TreeMap<String, Node> dirs = new TreeMap<String, Node>();
+    }
+
+    /** Files in this directory. */
+    private final TreeMap<String, ObjectId> _files;
+    /** Directories in this directory. */
+    private final TreeMap<String, ObjectId> _dirs;
+
+}
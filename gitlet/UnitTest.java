@@ -12,7 +12,9 @@ public class UnitTest {
     /** Run the JUnit tests in the loa package. Add xxxTest.class entries to
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
-        textui.runClasses(UnitTest.class);
+        textui.runClasses(UnitTest.class, MetaStoreTest.class,
+                          ObjectIdIndexTest.class, DeltaTest.class,
+                          CommitTest.class);
     }
 
     /** A dummy test to avoid complaint. */
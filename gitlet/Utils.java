@@ -1,11 +1,13 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.ObjectInputFilter;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
@@ -14,8 +16,9 @@ import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Formatter;
+import java.util.Collections;
 import java.util.List;
 
 
@@ -43,11 +46,7 @@ class Utils {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+            return bytesToHex(md.digest());
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
@@ -59,6 +58,70 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the bytes written as hexadecimal numeral HEX. */
+    static byte[] hexToBytes(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4)
+                                | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return result;
+    }
+
+    /** Returns BYTES written as a lower-case hexadecimal numeral. */
+    static String bytesToHex(byte[] bytes) {
+        char[] result = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i += 1) {
+            result[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    /** Hexadecimal digits by value. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /* VARINTS */
+
+    /** Write V as a varint to OUT: seven bits at a time, low bits first,
+     *  with the top bit of each byte set if more follow. */
+    static void writeVarint(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7fL) != 0) {
+            out.write((int) (v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    /** Return the varint in DATA at POS[0], and advance POS[0] past it. */
+    static long readVarint(byte[] data, int[] pos) {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (pos[0] >= data.length || shift > 63) {
+                throw new GitletException("Corrupt varint.");
+            }
+            int b = data[pos[0]] & 0xff;
+            pos[0] += 1;
+            v |= (long) (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return v;
+            }
+        }
+    }
+
+    /** Write the signed value V to OUT as a zigzag varint, so that
+     *  values near zero, of either sign, are short. */
+    static void writeSignedVarint(ByteArrayOutputStream out, long v) {
+        writeVarint(out, (v << 1) ^ (v >> 63));
+    }
+
+    /** Return the zigzag varint in DATA at POS[0], and advance POS[0]
+     *  past it. */
+    static long readSignedVarint(byte[] data, int[] pos) {
+        long v = readVarint(data, pos);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -139,6 +202,7 @@ class Utils {
         try {
             ObjectInputStream in =
                 new ObjectInputStream(new FileInputStream(file));
+            in.setObjectInputFilter(SERIAL_FILTER);
             T result = expectedClass.cast(in.readObject());
             in.close();
             return result;
@@ -148,6 +212,31 @@ class Utils {
         }
     }
 
+    /** Return an object of type T read from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try (ObjectInputStream in =
+                 new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            in.setObjectInputFilter(SERIAL_FILTER);
+            return expectedClass.cast(in.readObject());
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** The only classes readObject and deserialize will read: those that
+     *  gitlet's own repositories, indices and commits were written with.
+     *  Anything else in a stream is refused before it is built. */
+    private static final ObjectInputFilter SERIAL_FILTER =
+        ObjectInputFilter.Config.createFilter(
+            "maxdepth=16;gitlet.Repo;gitlet.Index;gitlet.Commit;"
+            + "java.lang.String;java.lang.Object;java.io.File;"
+            + "java.time.Ser;java.time.ZonedDateTime;java.util.ArrayList;"
+            + "java.util.HashMap;java.util.TreeMap;java.util.Map$Entry;!*");
+
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
         writeContents(file, serialize(obj));
@@ -184,6 +273,34 @@ class Utils {
         return plainFilenamesIn(new File(dir));
     }
 
+    /** Returns the paths of all plain files in the directory DIR and the
+     *  directories under it, other than .gitlet, in lexicographic order.
+     *  Each path is relative to DIR, with its parts separated by '/'. */
+    static List<String> plainFilesUnder(File dir) {
+        ArrayList<String> result = new ArrayList<String>();
+        plainFilesUnder(dir, "", result);
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Add the paths of the plain files under DIR, each starting with
+     *  PREFIX, to RESULT. */
+    private static void plainFilesUnder(File dir, String prefix,
+                                        List<String> result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isFile()) {
+                result.add(prefix + file.getName());
+            } else if (file.isDirectory()
+                       && !file.getName().equals(".gitlet")) {
+                plainFilesUnder(file, prefix + file.getName() + "/", result);
+            }
+        }
+    }
+
     /* OTHER FILE UTILITIES */
 
     /** Return the concatentation of FIRST and OTHERS into a File designator,
@@ -233,6 +350,16 @@ class Utils {
         System.out.println();
     }
 
+    /** Print a message composed from MSG and ARGS as for the String.format
+     *  method to the standard error, but only if the GITLET_STATS
+     *  environment variable is set. */
+    static void stats(String msg, Object... args) {
+        if (System.getenv("GITLET_STATS") != null) {
+            System.err.printf(msg, args);
+            System.err.println();
+        }
+    }
+
     /** FUNCTIONS */
 
     /** Represents a function from T1 -> T2.  The apply method contains the
@@ -0,0 +1,201 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashes working files across a fork/join pool.  Files whose stat data
+ * shows them unchanged since they were last hashed are not read.  The
+ * number of threads is the gitlet.threads system property, or the
+ * GITLET_THREADS environment variable, and defaults to the number of
+ * processors.  A scanner given an object store also stores every file it
+ * reads there, which is how files are added.
+ *  @author XiWang */
+
+public class WorkTreeScanner {
+
+    /** Files per task below which a task does not split further. */
+    private static final int SPLIT_THRESHOLD = 16;
+    /** Fewest files in a scan for which progress is shown. */
+    private static final int PROGRESS_THRESHOLD = 1000;
+
+    /** What a scan found about one working file. */
+    static class Entry {
+        /** File NAME with current stat data STAT (null if it does not
+         *  exist) and content HASH (null if it does not exist).  FRESH if
+         *  the file had to be read. */
+        Entry(String name, Index.Stat stat, ObjectId hash,
+              boolean fresh) {
+            this.name = name;
+            this.stat = stat;
+            this.hash = hash;
+            this.fresh = fresh;
+        }
+
+        /** File name. */
+        final String name;
+        /** Current stat data. */
+        final Index.Stat stat;
+        /** Content hash. */
+        final ObjectId hash;
+        /** True if the file was read and hashed. */
+        final boolean fresh;
+    }
+
+    /** A scanner for files in WORKINGDIR, trusting the stat data in
+     *  INDEX. */
+    WorkTreeScanner(File workingDir, Index index) {
+        this(workingDir, index, null);
+    }
+
+    /** A scanner for files in WORKINGDIR, trusting the stat data in
+     *  INDEX, that stores each file in STORE unless it is there already.
+     *  STORE may be null. */
+    WorkTreeScanner(File workingDir, Index index, ObjectStore store) {
+        _workingDir = workingDir;
+        _index = index;
+        _store = store;
+    }
+
+    /** Return the number of threads used for scanning. */
+    static int parallelism() {
+        String value = System.getProperty("gitlet.threads",
+                                          System.getenv("GITLET_THREADS"));
+        if (value != null) {
+            try {
+                return Math.max(1, Integer.parseInt(value));
+            } catch (NumberFormatException e) {
+                return Runtime.getRuntime().availableProcessors();
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /** Return the pool scans run in, creating it on first use. */
+    static synchronized ForkJoinPool pool() {
+        if (_pool == null) {
+            _pool = new ForkJoinPool(parallelism());
+        }
+        return _pool;
+    }
+
+    /** Return the paths of the plain files in the working tree, in
+     *  lexicographic order, each '/'-separated and relative to the
+     *  working directory. */
+    List<String> list() {
+        return Utils.plainFilesUnder(_workingDir);
+    }
+
+    /** Return what is currently in each of the working files NAMES. */
+    Map<String, Entry> scan(Collection<String> names) {
+        String[] all = names.toArray(new String[names.size()]);
+        Entry[] result = new Entry[all.length];
+        _total = all.length;
+        _done.set(0);
+        pool().invoke(new ScanTask(all, result, 0, all.length));
+        if (showProgress()) {
+            System.err.printf("%s: 100%% (%d/%d), done.%n", progressLabel(),
+                              _total, _total);
+        }
+        HashMap<String, Entry> map = new HashMap<String, Entry>();
+        for (Entry e : result) {
+            map.put(e.name, e);
+        }
+        return map;
+    }
+
+    /** Return what is currently in the working file NAME. */
+    Entry scan(String name) {
+        File file = Utils.join(_workingDir, name);
+        Index.Stat stat = Index.Stat.of(file);
+        if (stat == null || !file.isFile()) {
+            return new Entry(name, null, null, false);
+        }
+        ObjectId hash = _index.cachedHash(name, stat);
+        if (hash != null && (_store == null || _store.contains(hash))) {
+            return new Entry(name, stat, hash, false);
+        }
+        if (_store != null) {
+            return new Entry(name, stat, _store.writeBlob(file), true);
+        }
+        return new Entry(name, stat, Blob.hash(file), true);
+    }
+
+    /** Note that one more file of the current scan is done, and show how
+     *  far the scan has got each time another percent is done. */
+    private void progress() {
+        int done = _done.incrementAndGet();
+        if (showProgress()
+            && done * 100L / _total != (done - 1) * 100L / _total) {
+            System.err.printf("%s: %d%% (%d/%d)\r", progressLabel(),
+                              done * 100L / _total, done, _total);
+        }
+    }
+
+    /** Return true if progress of the current scan is shown: when it is
+     *  large and there is a terminal to show it on. */
+    private boolean showProgress() {
+        return _total >= PROGRESS_THRESHOLD && System.console() != null;
+    }
+
+    /** Return what the current scan is said to be doing. */
+    private String progressLabel() {
+        return _store == null ? "Scanning files" : "Adding files";
+    }
+
+    /** Scans a slice of an array of names. */
+    private class ScanTask extends RecursiveAction {
+        /** Version of the serialized form, which is never used. */
+        private static final long serialVersionUID = 1L;
+
+        /** Scan NAMES[FROM .. TO-1] into RESULT. */
+        ScanTask(String[] names, Entry[] result, int from, int to) {
+            _names = names;
+            _result = result;
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (_to - _from <= SPLIT_THRESHOLD) {
+                for (int i = _from; i < _to; i += 1) {
+                    _result[i] = scan(_names[i]);
+                    progress();
+                }
+            } else {
+                int mid = (_from + _to) >>> 1;
+                invokeAll(new ScanTask(_names, _result, _from, mid),
+                          new ScanTask(_names, _result, mid, _to));
+            }
+        }
+
+        /** Names to scan. */
+        private final String[] _names;
+        /** Where results go. */
+        private final Entry[] _result;
+        /** The slice. */
+        private final int _from, _to;
+    }
+
+    /** Pool shared by all scans. */
+    private static ForkJoinPool _pool;
+
+    /** Working directory. */
+    private final File _workingDir;
+    /** Index whose stat data is trusted. */
+    private final Index _index;
+    /** Where files read are stored, or null. */
+    private final ObjectStore _store;
+    /** Number of files in the current scan. */
+    private int _total;
+    /** Number of files of the current scan done so far. */
+    private final AtomicInteger _done = new AtomicInteger();
+
+}